@@ -0,0 +1,97 @@
+package org.inigma.maven.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.inigma.maven.GitHead;
+import org.inigma.maven.GitHeadResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves the branch of HEAD in synthetic repositories whose refs are all packed, as after a clone with many tags,
+ * once with {@link GitHeadResolver} and once by opening the repository with JGit, the path taken for layouts the
+ * resolver does not understand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BranchResolutionBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int refs;
+
+    private File gitDir;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException {
+        gitDir = File.createTempFile("branch-benchmark-", ".git");
+        gitDir.delete();
+        new File(gitDir, "objects").mkdirs();
+        new File(gitDir, "refs/heads").mkdirs();
+        new File(gitDir, "refs/tags").mkdirs();
+        FileUtils.fileWrite(new File(gitDir, "config").getAbsolutePath(), "UTF-8",
+                "[core]\n\trepositoryformatversion = 0\n\tbare = false\n");
+
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < refs; i++) {
+            names.add((i % 10 == 0 ? "refs/heads/feature/branch-" : "refs/tags/v1.") + i);
+        }
+        Collections.sort(names);
+        String head = names.get(names.size() / 2);
+        if (!head.startsWith("refs/heads/")) {
+            head = "refs/heads/feature/branch-0";
+        }
+        FileUtils.fileWrite(new File(gitDir, "HEAD").getAbsolutePath(), "UTF-8", "ref: " + head + "\n");
+
+        StringBuilder packed = new StringBuilder("# pack-refs with: peeled fully-peeled sorted \n");
+        for (int i = 0; i < names.size(); i++) {
+            packed.append(String.format(Locale.ROOT, "%040x", i + 1)).append(' ').append(names.get(i)).append('\n');
+        }
+        FileUtils.fileWrite(new File(gitDir, "packed-refs").getAbsolutePath(), "UTF-8", packed.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        FileUtils.deleteDirectory(gitDir);
+    }
+
+    @Benchmark
+    public GitHead headResolver() throws IOException {
+        return GitHeadResolver.resolve(gitDir, gitDir);
+    }
+
+    @Benchmark
+    public String jgit() throws IOException {
+        Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).build();
+        try {
+            Ref ref = repository.getRef(Constants.HEAD);
+            return ref.getTarget().getName();
+        } finally {
+            repository.close();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.inigma.maven.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.digest.Digester;
+import org.codehaus.plexus.digest.DigesterException;
+import org.codehaus.plexus.digest.Md5Digester;
+import org.codehaus.plexus.digest.Sha1Digester;
+import org.inigma.maven.ChecksumEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the per algorithm plexus {@link Digester} path pomInstall used to take, one full read of the file for each
+ * checksum, with the single read {@link ChecksumEngine}. Run with <code>-p sizeMb=300</code> to reproduce the shaded
+ * jar case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ChecksumBenchmark {
+    @Param({"1", "64"})
+    public int sizeMb;
+
+    private File file;
+    private final Digester md5Digester = new Md5Digester();
+    private final Digester sha1Digester = new Sha1Digester();
+    private final ChecksumEngine defaultEngine = new ChecksumEngine(ChecksumEngine.DEFAULT_ALGORITHMS, 1);
+    private final ChecksumEngine allEngine = new ChecksumEngine("md5,sha1,sha256,sha512", 1);
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        file = File.createTempFile("checksum-benchmark-", ".jar");
+        Random random = new Random(sizeMb);
+        byte[] chunk = new byte[1024 * 1024];
+        OutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < sizeMb; i++) {
+                random.nextBytes(chunk);
+                out.write(chunk);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void digesterMd5Sha1(Blackhole blackhole) throws DigesterException {
+        blackhole.consume(md5Digester.calc(file));
+        blackhole.consume(sha1Digester.calc(file));
+    }
+
+    @Benchmark
+    public Map<String, String> engineMd5Sha1() throws IOException {
+        return defaultEngine.calculate(file);
+    }
+
+    @Benchmark
+    public Map<String, String> engineAllAlgorithms() throws IOException {
+        return allEngine.calculate(file);
+    }
+}
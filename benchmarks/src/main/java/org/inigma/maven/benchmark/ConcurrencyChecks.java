@@ -0,0 +1,287 @@
+package org.inigma.maven.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.inigma.maven.GitVersionBranchMojo;
+import org.inigma.maven.ReactorVersions;
+import org.sonatype.aether.repository.WorkspaceReader;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+
+/**
+ * Checks that gitVersion resolves the versions of a reactor exactly once when every module executes it at the same
+ * time, the way the module builds of one session do under a parallel build. Each run starts the executions of a
+ * fresh session behind a latch and compares the reactor's GAV map and the resulting versions with those of the first
+ * run. Usage:
+ * <pre>
+ * java -cp target/benchmarks.jar org.inigma.maven.benchmark.ConcurrencyChecks [--threads 8] [--runs 20] [--keep]
+ * </pre>
+ */
+public class ConcurrencyChecks {
+    private static final String GROUP_ID = "org.inigma.maven.checks";
+    private static final String ORIGINAL_VERSION = "1.0-SNAPSHOT";
+    private static final String BRANCH = "feature/concurrency";
+    private static final String SKIPPED = "Reactor versions ";
+
+    private int threads = 8;
+    private int runs = 20;
+    private int modules = 4;
+    private boolean keep;
+    private final List<String> failures = new ArrayList<String>();
+
+    public static void main(String[] args) throws Exception {
+        ConcurrencyChecks checks = new ConcurrencyChecks();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--threads".equals(arg)) {
+                checks.threads = Integer.parseInt(args[++i]);
+            } else if ("--runs".equals(arg)) {
+                checks.runs = Integer.parseInt(args[++i]);
+            } else if ("--modules".equals(arg)) {
+                checks.modules = Integer.parseInt(args[++i]);
+            } else if ("--keep".equals(arg)) {
+                checks.keep = true;
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        List<String> failures = checks.run();
+        for (String failure : failures) {
+            System.err.println("FAILED: " + failure);
+        }
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private List<String> run() throws Exception {
+        GeneratedReactor reactor = new GeneratedReactor(GROUP_ID, "concurrency", modules);
+        reactor.setPluginVersion(GeneratedReactor.readPluginVersion());
+        reactor.create(BRANCH);
+        try {
+            Run first = null;
+            for (int i = 0; i < runs; i++) {
+                Run run = execute(reactor);
+                String name = "run " + (i + 1) + " of " + runs;
+                if (!run.errors.isEmpty()) {
+                    failures.add(name + " failed: " + run.errors);
+                }
+                if (run.skipped.get() != threads - 1) {
+                    failures.add(name + " resolved the versions " + (threads - run.skipped.get())
+                            + " times, expected once for " + threads + " executions");
+                }
+                if (first == null) {
+                    first = run;
+                    checkRekeyed(name, run);
+                } else {
+                    if (!first.projectsByGAV.equals(run.projectsByGAV)) {
+                        failures.add(name + " left the GAV map " + run.projectsByGAV + " instead of "
+                                + first.projectsByGAV);
+                    }
+                    if (!first.versions.equals(run.versions)) {
+                        failures.add(name + " applied the versions " + run.versions + " instead of " + first.versions);
+                    }
+                }
+            }
+            System.out.println((failures.isEmpty() ? "OK" : "FAILED") + " concurrency: " + runs + " runs of "
+                    + threads + " concurrent gitVersion executions");
+        } finally {
+            if (keep) {
+                System.out.println("Kept " + reactor.getDirectory());
+            } else {
+                reactor.delete();
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Every module must be keyed by its final version, which must differ from the committed one on a feature branch.
+     */
+    private void checkRekeyed(String name, Run run) {
+        for (Map.Entry<String, String> entry : run.projectsByGAV.entrySet()) {
+            String version = run.versions.get(entry.getValue());
+            if (version == null || version.startsWith(ORIGINAL_VERSION)
+                    || !entry.getKey().equals(GROUP_ID + ":" + entry.getValue() + ":" + version.split(" ")[0])) {
+                failures.add(name + " keyed " + entry.getValue() + " as " + entry.getKey() + " with the versions "
+                        + version);
+            }
+        }
+    }
+
+    /**
+     * Executes gitVersion for a new session of the reactor from every thread at once.
+     */
+    private Run execute(GeneratedReactor reactor) throws Exception {
+        List<MavenProject> projects = readProjects(reactor.getReactor());
+        Map<String, MavenProject> projectsByGAV = new HashMap<String, MavenProject>();
+        for (MavenProject project : projects) {
+            projectsByGAV.put(project.getGroupId() + ":" + project.getArtifactId() + ":" + project.getVersion(),
+                    project);
+        }
+        MavenSession session = newSession(reactor.getReactor(), projectsByGAV);
+
+        final Run run = new Run();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> executions = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            final GitVersionBranchMojo mojo = newMojo(session, projects, projects.get(i % projects.size()), run);
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        mojo.execute();
+                    } catch (Exception e) {
+                        run.errors.add(e.toString());
+                    }
+                }
+            }, "gitVersion-" + i);
+            thread.start();
+            executions.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : executions) {
+            thread.join();
+        }
+
+        if (!ReactorVersions.get(session).isApplied()) {
+            run.errors.add("the versions were never marked as applied");
+        }
+        for (Map.Entry<String, MavenProject> entry : projectsByGAV.entrySet()) {
+            run.projectsByGAV.put(entry.getKey(), entry.getValue().getArtifactId());
+        }
+        for (MavenProject project : projects) {
+            StringBuilder versions = new StringBuilder(project.getVersion());
+            versions.append(" artifact ").append(project.getArtifact().getVersion());
+            if (project.getModel().getParent() != null) {
+                versions.append(" parent ").append(project.getModel().getParent().getVersion());
+            }
+            for (Dependency dependency : project.getDependencies()) {
+                versions.append(" ").append(dependency.getArtifactId()).append(" ").append(dependency.getVersion());
+            }
+            run.versions.put(project.getArtifactId(), versions.toString());
+        }
+        return run;
+    }
+
+    /**
+     * @return the parent and its modules as Maven would see them after reading the reactor, unversioned.
+     */
+    private List<MavenProject> readProjects(File directory) throws Exception {
+        List<MavenProject> projects = new ArrayList<MavenProject>();
+        projects.add(readProject(new File(directory, "pom.xml")));
+        for (int i = 0; i < modules; i++) {
+            projects.add(readProject(new File(directory, GeneratedReactor.moduleName(i) + "/pom.xml")));
+        }
+        return projects;
+    }
+
+    private static MavenProject readProject(File pom) throws Exception {
+        Model model;
+        InputStream in = new FileInputStream(pom);
+        try {
+            model = new MavenXpp3Reader().read(in);
+        } finally {
+            IOUtil.close(in);
+        }
+        model.setGroupId(GROUP_ID);
+        model.setVersion(ORIGINAL_VERSION);
+        for (Dependency dependency : model.getDependencies()) {
+            dependency.setVersion(ORIGINAL_VERSION);
+        }
+        if (model.getBuild() == null) {
+            model.setBuild(new Build());
+        }
+        model.getBuild().setDirectory(new File(pom.getParentFile(), "target").getAbsolutePath());
+
+        MavenProject project = new MavenProject(model);
+        project.setFile(pom.getAbsoluteFile());
+        project.setArtifact(new DefaultArtifact(GROUP_ID, model.getArtifactId(),
+                VersionRange.createFromVersion(ORIGINAL_VERSION), null, "pom", null,
+                new DefaultArtifactHandler("pom")));
+        return project;
+    }
+
+    private static MavenSession newSession(File directory, Map<String, MavenProject> projectsByGAV)
+            throws Exception {
+        Constructor<?> constructor = Class.forName("org.apache.maven.ReactorReader").getConstructor(Map.class);
+        constructor.setAccessible(true);
+        DefaultRepositorySystemSession repositorySession = new DefaultRepositorySystemSession();
+        repositorySession.setWorkspaceReader((WorkspaceReader) constructor.newInstance(projectsByGAV));
+        MavenExecutionRequest request = new DefaultMavenExecutionRequest();
+        request.setBaseDirectory(directory);
+        request.setStartTime(new Date());
+        return new MavenSession(null, repositorySession, request, new DefaultMavenExecutionResult());
+    }
+
+    private static GitVersionBranchMojo newMojo(MavenSession session, List<MavenProject> projects,
+            MavenProject project, final Run run) throws IllegalAccessException {
+        GitVersionBranchMojo mojo = new GitVersionBranchMojo();
+        ReflectionUtils.setVariableValueInObject(mojo, "session", session);
+        ReflectionUtils.setVariableValueInObject(mojo, "project", project);
+        ReflectionUtils.setVariableValueInObject(mojo, "reactorProjects", projects);
+        ReflectionUtils.setVariableValueInObject(mojo, "pomFile", project.getFile());
+        ReflectionUtils.setVariableValueInObject(mojo, "buildDirectory",
+                new File(project.getBuild().getDirectory()));
+        ReflectionUtils.setVariableValueInObject(mojo, "packaging", "pom");
+        ReflectionUtils.setVariableValueInObject(mojo, "versionPattern", "${scmVersion.branch}-SNAPSHOT");
+        ReflectionUtils.setVariableValueInObject(mojo, "ciBranchVariables", "");
+        ReflectionUtils.setVariableValueInObject(mojo, "timestampSource", "session");
+        ReflectionUtils.setVariableValueInObject(mojo, "prefetchTimeout", 30000L);
+        ReflectionUtils.setVariableValueInObject(mojo, "scmProvider", "jgit");
+        mojo.setLog(new SystemStreamLog() {
+            @Override
+            public boolean isDebugEnabled() {
+                return false;
+            }
+
+            @Override
+            public void debug(CharSequence content) {
+                if (content.toString().startsWith(SKIPPED)) {
+                    run.skipped.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void info(CharSequence content) {
+            }
+        });
+        return mojo;
+    }
+
+    /**
+     * The outcome of one run, the GAV map by key and the versions of every project by artifactId.
+     */
+    private static class Run {
+        private final Map<String, String> projectsByGAV = new TreeMap<String, String>();
+        private final Map<String, String> versions = new TreeMap<String, String>();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    }
+}
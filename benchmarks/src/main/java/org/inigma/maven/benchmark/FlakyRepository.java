@@ -0,0 +1,132 @@
+package org.inigma.maven.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A remote repository over HTTP standing in for a repository manager, storing what is uploaded in a directory. The
+ * first upload of the POM of a failing module is answered with 503 Service Unavailable, the way an overloaded
+ * repository manager refuses uploads for a while, and every upload is counted by path.
+ */
+class FlakyRepository implements HttpHandler {
+    private final File directory;
+    private final List<String> failing = new ArrayList<String>();
+    private final Map<String, Integer> uploads = new HashMap<String, Integer>();
+    private int failed;
+    private HttpServer server;
+
+    FlakyRepository(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param artifactId the module whose POM fails to upload the first time.
+     */
+    synchronized void failFirstPomUpload(String artifactId) {
+        failing.add(artifactId);
+    }
+
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this);
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return the number of uploads answered with an error.
+     */
+    synchronized int getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return the number of uploads of every path, failed ones included.
+     */
+    synchronized Map<String, Integer> getUploads() {
+        return new HashMap<String, Integer>(uploads);
+    }
+
+    synchronized void resetUploads() {
+        uploads.clear();
+        failed = 0;
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath().substring(1);
+            File file = new File(directory, path);
+            String method = exchange.getRequestMethod();
+            if ("PUT".equals(method)) {
+                if (isFailing(path)) {
+                    IOUtil.toByteArray(exchange.getRequestBody());
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+                store(exchange.getRequestBody(), file);
+                exchange.sendResponseHeaders(201, -1);
+            } else if (("GET".equals(method) || "HEAD".equals(method)) && file.isFile()) {
+                exchange.sendResponseHeaders(200, "HEAD".equals(method) ? -1 : file.length());
+                if ("GET".equals(method)) {
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        IOUtil.copy(in, exchange.getResponseBody());
+                    } finally {
+                        IOUtil.close(in);
+                    }
+                }
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized boolean isFailing(String path) {
+        Integer count = uploads.get(path);
+        uploads.put(path, count == null ? 1 : count + 1);
+        if (count != null) {
+            return false;
+        }
+        for (String artifactId : failing) {
+            if (path.contains("/" + artifactId + "/") && path.endsWith(".pom")) {
+                failed++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void store(InputStream in, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            IOUtil.copy(in, out);
+        } finally {
+            IOUtil.close(out);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package org.inigma.maven.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * A generated reactor for building the plugin end to end: a parent with <code>size</code> POM modules that all
+ * depend on the first one, deploying to a file repository, committed to a temporary git repository on a feature
+ * branch. The parent binds gitVersion, pomInstall and pomDeploy and tells the standard deploy plugin to stand aside.
+ */
+class GeneratedReactor {
+    private final String groupId;
+    private final int size;
+    private final File directory;
+    private final File reactor;
+    private final File repository;
+    private String pluginVersion;
+    private boolean extension;
+    private String configuration = "";
+    private String repositoryUrl;
+    private List<String> goals = Arrays.asList("gitVersion", "pomInstall", "pomDeploy");
+    private String dependencyVersion = "${project.version}";
+    private final Map<Integer, String> moduleProperties = new HashMap<Integer, String>();
+    private final Map<Integer, String> moduleBuilds = new HashMap<Integer, String>();
+
+    GeneratedReactor(String groupId, String name, int size) throws IOException {
+        this.groupId = groupId;
+        this.size = size;
+        directory = File.createTempFile(name + "-", "");
+        directory.delete();
+        reactor = new File(directory, "reactor");
+        repository = new File(directory, "repository");
+        repositoryUrl = repository.toURI().toString();
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    File getReactor() {
+        return reactor;
+    }
+
+    File getRepository() {
+        return repository;
+    }
+
+    void setPluginVersion(String pluginVersion) {
+        this.pluginVersion = pluginVersion;
+    }
+
+    /**
+     * @param extension true to declare the plugin with extensions enabled.
+     */
+    void setExtension(boolean extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @param configuration the XML elements to put in the plugin configuration of the parent.
+     */
+    void setConfiguration(String configuration) {
+        this.configuration = configuration;
+    }
+
+    void setRepositoryUrl(String repositoryUrl) {
+        this.repositoryUrl = repositoryUrl;
+    }
+
+    void setGoals(String... goals) {
+        this.goals = Arrays.asList(goals);
+    }
+
+    /**
+     * @param dependencyVersion the version the modules depend on the first one with.
+     */
+    void setDependencyVersion(String dependencyVersion) {
+        this.dependencyVersion = dependencyVersion;
+    }
+
+    /**
+     * @param properties the XML elements to put in the properties of the module.
+     */
+    void setModuleProperties(int index, String properties) {
+        moduleProperties.put(index, properties);
+    }
+
+    /**
+     * @param build the XML elements to put in the build section of the module.
+     */
+    void setModuleBuild(int index, String build) {
+        moduleBuilds.put(index, build);
+    }
+
+    /**
+     * @return the version of the plugin the benchmarks were built against.
+     */
+    static String readPluginVersion() throws IOException {
+        Properties properties = new Properties();
+        InputStream in = GeneratedReactor.class.getResourceAsStream("/scale-harness.properties");
+        try {
+            properties.load(in);
+        } finally {
+            IOUtil.close(in);
+        }
+        return properties.getProperty("plugin.version");
+    }
+
+    static String moduleName(int index) {
+        return String.format(Locale.ROOT, "module-%04d", index);
+    }
+
+    /**
+     * @return the module names, parent first.
+     */
+    List<String> getArtifactIds() {
+        List<String> artifactIds = new ArrayList<String>();
+        artifactIds.add("parent");
+        for (int i = 0; i < size; i++) {
+            artifactIds.add(moduleName(i));
+        }
+        return artifactIds;
+    }
+
+    /**
+     * Writes the POMs and commits them on a new feature branch.
+     */
+    void create(String branch) throws IOException, InterruptedException {
+        StringBuilder modules = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            String artifactId = moduleName(i);
+            modules.append("    <module>").append(artifactId).append("</module>\n");
+
+            StringBuilder pom = new StringBuilder();
+            pom.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            pom.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+            pom.append("  <modelVersion>4.0.0</modelVersion>\n");
+            pom.append("  <parent>\n    <groupId>").append(groupId).append("</groupId>\n");
+            pom.append("    <artifactId>parent</artifactId>\n    <version>1.0-SNAPSHOT</version>\n");
+            pom.append("  </parent>\n");
+            pom.append("  <artifactId>").append(artifactId).append("</artifactId>\n");
+            pom.append("  <packaging>pom</packaging>\n");
+            if (moduleProperties.containsKey(i)) {
+                pom.append("  <properties>\n    ").append(moduleProperties.get(i)).append("\n  </properties>\n");
+            }
+            if (i > 0) {
+                pom.append("  <dependencies>\n    <dependency>\n      <groupId>").append(groupId);
+                pom.append("</groupId>\n      <artifactId>").append(moduleName(0)).append("</artifactId>\n");
+                pom.append("      <version>").append(dependencyVersion).append("</version>\n      <type>pom</type>\n");
+                pom.append("    </dependency>\n  </dependencies>\n");
+            }
+            if (moduleBuilds.containsKey(i)) {
+                pom.append("  <build>\n    ").append(moduleBuilds.get(i)).append("\n  </build>\n");
+            }
+            pom.append("</project>\n");
+            write(new File(reactor, artifactId + "/pom.xml"), pom.toString());
+        }
+
+        StringBuilder pom = new StringBuilder();
+        pom.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        pom.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+        pom.append("  <modelVersion>4.0.0</modelVersion>\n");
+        pom.append("  <groupId>").append(groupId).append("</groupId>\n");
+        pom.append("  <artifactId>parent</artifactId>\n  <version>1.0-SNAPSHOT</version>\n");
+        pom.append("  <packaging>pom</packaging>\n");
+        pom.append("  <modules>\n").append(modules).append("  </modules>\n");
+        pom.append("  <distributionManagement>\n    <repository>\n      <id>generated</id>\n");
+        pom.append("      <url>").append(repositoryUrl).append("</url>\n");
+        pom.append("    </repository>\n    <snapshotRepository>\n      <id>generated</id>\n");
+        pom.append("      <url>").append(repositoryUrl).append("</url>\n");
+        pom.append("    </snapshotRepository>\n  </distributionManagement>\n");
+        pom.append("  <build>\n    <plugins>\n");
+        pom.append("      <plugin>\n        <artifactId>maven-deploy-plugin</artifactId>\n");
+        pom.append("        <version>2.7</version>\n");
+        pom.append("        <configuration>\n          <skip>true</skip>\n        </configuration>\n");
+        pom.append("      </plugin>\n");
+        pom.append("      <plugin>\n        <groupId>org.inigma.maven</groupId>\n");
+        pom.append("        <artifactId>maven-scm-version-plugin</artifactId>\n");
+        pom.append("        <version>").append(pluginVersion).append("</version>\n");
+        if (extension) {
+            pom.append("        <extensions>true</extensions>\n");
+        }
+        pom.append("        <configuration>").append(configuration).append("</configuration>\n");
+        pom.append("        <executions>\n          <execution>\n            <goals>\n");
+        for (String goal : goals) {
+            pom.append("              <goal>").append(goal).append("</goal>\n");
+        }
+        pom.append("            </goals>\n          </execution>\n        </executions>\n      </plugin>\n");
+        pom.append("    </plugins>\n  </build>\n</project>\n");
+        write(new File(reactor, "pom.xml"), pom.toString());
+
+        git("init", "-q");
+        git("add", "-A");
+        git("-c", "user.name=harness", "-c", "user.email=harness@example.org", "commit", "-q", "-m",
+                "Generated reactor");
+        git("checkout", "-q", "-b", branch);
+    }
+
+    /**
+     * @return the exit code of Maven run in the reactor with the arguments, its output going to the log.
+     */
+    int build(String mvn, File log, String... arguments) throws IOException, InterruptedException {
+        String[] command = new String[arguments.length + 1];
+        command[0] = mvn;
+        System.arraycopy(arguments, 0, command, 1, arguments.length);
+        return execute(reactor, log, command);
+    }
+
+    /**
+     * @return the versions of the module deployed to the file repository.
+     */
+    List<String> getDeployedVersions(String artifactId) {
+        File artifactDir = new File(repository, groupId.replace('.', '/') + "/" + artifactId);
+        List<String> versions = new ArrayList<String>();
+        File[] children = artifactDir.listFiles();
+        for (int i = 0; children != null && i < children.length; i++) {
+            if (children[i].isDirectory()) {
+                versions.add(children[i].getName());
+            }
+        }
+        return versions;
+    }
+
+    void delete() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private void git(String... args) throws IOException, InterruptedException {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        File log = File.createTempFile("git-", ".log");
+        try {
+            if (execute(reactor, log, command) != 0) {
+                throw new IOException("git " + args[0] + " failed: " + FileUtils.fileRead(log));
+            }
+        } finally {
+            log.delete();
+        }
+    }
+
+    private static int execute(File directory, File log, String... command) throws IOException,
+            InterruptedException {
+        ProcessBuilder builder = new ProcessBuilder(command).directory(directory).redirectErrorStream(true);
+        builder.redirectOutput(log);
+        return builder.start().waitFor();
+    }
+
+    static void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getAbsolutePath(), "UTF-8", content);
+    }
+}
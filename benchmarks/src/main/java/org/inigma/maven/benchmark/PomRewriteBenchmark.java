@@ -0,0 +1,108 @@
+package org.inigma.maven.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.inigma.maven.PomVersionRewriter;
+import org.inigma.maven.RewrittenPoms;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rewrites POMs the way getPomFile does, for a small POM and for one of about 5000 lines. <code>rewrite</code> writes
+ * a new file on every call, <code>cached</code> finds the file written before, and <code>stream</code> measures the
+ * streaming rewriter alone, in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PomRewriteBenchmark {
+    private static final String VERSION = "feature-ABC-1234-SNAPSHOT";
+
+    @Param({"40", "5000"})
+    public int lines;
+
+    private File directory;
+    private File pom;
+    private byte[] content;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void createPom() throws IOException, XmlPullParserException {
+        directory = File.createTempFile("pom-benchmark-", "");
+        directory.delete();
+        directory.mkdirs();
+        pom = new File(directory, "pom.xml");
+        FileUtils.fileWrite(pom.getAbsolutePath(), "UTF-8", generatePom(lines));
+        content = FileUtils.fileRead(pom, "UTF-8").getBytes("UTF-8");
+        RewrittenPoms.get(pom, VERSION, new File(directory, "target"));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    /**
+     * @return a POM with a SNAPSHOT parent and version and enough dependencies to reach about the given line count.
+     */
+    static String generatePom(int lines) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n");
+        sb.append("  <modelVersion>4.0.0</modelVersion>\n");
+        sb.append("  <parent>\n    <groupId>org.example</groupId>\n    <artifactId>parent</artifactId>\n");
+        sb.append("    <version>1.0-SNAPSHOT</version>\n  </parent>\n");
+        sb.append("  <artifactId>module</artifactId>\n  <version>1.0-SNAPSHOT</version>\n");
+        sb.append("  <!-- generated for benchmarking -->\n");
+        sb.append("  <dependencies>\n");
+        for (int line = 14; line < lines - 2; line += 5) {
+            int i = line / 5;
+            sb.append("    <dependency>\n      <groupId>org.example.group").append(i % 50).append("</groupId>\n");
+            sb.append("      <artifactId>library-").append(i).append("</artifactId>\n");
+            sb.append("      <version>").append(i % 7).append('.').append(i % 13).append("</version>\n");
+            sb.append("    </dependency>\n");
+        }
+        sb.append("  </dependencies>\n");
+        sb.append("</project>\n");
+        return sb.toString();
+    }
+
+    @Benchmark
+    public File rewrite() throws IOException, XmlPullParserException {
+        File rewritten = RewrittenPoms.get(pom, "feature-" + counter++ + "-SNAPSHOT", new File(directory, "target"));
+        rewritten.delete();
+        return rewritten;
+    }
+
+    @Benchmark
+    public File cached() throws IOException, XmlPullParserException {
+        return RewrittenPoms.get(pom, VERSION, new File(directory, "target"));
+    }
+
+    @Benchmark
+    public byte[] stream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + 64);
+        new PomVersionRewriter(VERSION).rewrite(new ByteArrayInputStream(content), out);
+        return out.toByteArray();
+    }
+}
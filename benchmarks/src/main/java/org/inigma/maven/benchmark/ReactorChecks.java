@@ -0,0 +1,351 @@
+package org.inigma.maven.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * End to end checks of the plugin against small generated reactors, each built by a separate <code>mvn</code>
+ * process and deploying to a file repository or to an HTTP stand-in for a repository manager. A build that reports
+ * success must have built every module and deployed it; a check fails on any module the reactor summary lists as
+ * skipped. Usage:
+ * <pre>
+ * java -cp target/benchmarks.jar org.inigma.maven.benchmark.ReactorChecks [--mvn mvn] [--modules 4] [--keep]
+ * </pre>
+ * The generated modules are installed to the local repository under the <code>org.inigma.maven.checks</code> group.
+ */
+public class ReactorChecks {
+    private static final String GROUP_ID = "org.inigma.maven.checks";
+    private static final Pattern SKIPPED = Pattern.compile("^\\[INFO\\] (\\S+) \\.+ SKIPPED", Pattern.MULTILINE);
+    private static final Pattern INSTALLED = Pattern.compile("Installing \\d+ files for (\\d+) artifacts");
+    private static final String UNBOUND = "<plugins><plugin><groupId>org.inigma.maven</groupId>"
+            + "<artifactId>maven-scm-version-plugin</artifactId><executions><execution><id>default</id>"
+            + "<phase>none</phase></execution></executions></plugin></plugins>";
+    private static final Pattern UNCHANGED = Pattern.compile("Skipping \\d+ unchanged artifacts of ");
+    private static final String RETRYING = ", retrying in ";
+    private static final String STALE_REFERENCE = "keeps the version ${";
+    private static final String NEVER_PROCESSED = "for the end of the build were never processed";
+
+    private String mvn = "mvn";
+    private int modules = 4;
+    private boolean keep;
+    private String pluginVersion;
+    private final List<String> failures = new ArrayList<String>();
+
+    public static void main(String[] args) throws Exception {
+        ReactorChecks checks = new ReactorChecks();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--mvn".equals(arg)) {
+                checks.mvn = args[++i];
+            } else if ("--modules".equals(arg)) {
+                checks.modules = Integer.parseInt(args[++i]);
+            } else if ("--keep".equals(arg)) {
+                checks.keep = true;
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        List<String> failures = checks.run();
+        for (String failure : failures) {
+            System.err.println("FAILED: " + failure);
+        }
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private List<String> run() throws IOException, InterruptedException {
+        pluginVersion = GeneratedReactor.readPluginVersion();
+        checkParallelExtension();
+        checkParallelPlugin();
+        checkInstallAtEndUnbound();
+        checkInstallAtEndResumed();
+        checkDeployAtEndSkipped();
+        checkDeployRetried();
+        checkSkipUnchanged();
+        checkPropertyVersion();
+        return failures;
+    }
+
+    /**
+     * The build extension versions the reactor before the parallel builder schedules it, so every module is built.
+     */
+    private void checkParallelExtension() throws IOException, InterruptedException {
+        GeneratedReactor reactor = newReactor("parallel-extension");
+        reactor.setExtension(true);
+        Build build = build(reactor, "-B", "-T", "4", "deploy");
+        expectSuccess(build);
+        expectDeployed(build, reactor.getArtifactIds());
+        finish(build);
+    }
+
+    /**
+     * Without the build extension a parallel build cannot be versioned and has to fail rather than skip modules.
+     */
+    private void checkParallelPlugin() throws IOException, InterruptedException {
+        GeneratedReactor reactor = newReactor("parallel-plugin");
+        Build build = build(reactor, "-B", "-T", "4", "deploy");
+        if (build.exitCode == 0) {
+            fail(build, "succeeded although gitVersion cannot version a parallel build without the extension");
+        } else if (!build.output.contains("<extensions>true</extensions>")) {
+            fail(build, "failed without pointing at the build extension");
+        }
+        finish(build);
+    }
+
+    /**
+     * A module that does not run pomInstall must not keep the others from being installed at the end.
+     */
+    private void checkInstallAtEndUnbound() throws IOException, InterruptedException {
+        GeneratedReactor reactor = newReactor("install-at-end-unbound");
+        reactor.setConfiguration("<installAtEnd>true</installAtEnd>");
+        reactor.setModuleBuild(modules / 2, UNBOUND);
+        Build build = build(reactor, "-B", "install");
+        expectSuccess(build);
+        expectInstalledAtEnd(build, modules);
+        finish(build);
+    }
+
+    /**
+     * A build resumed with -rf only waits for the modules it builds.
+     */
+    private void checkInstallAtEndResumed() throws IOException, InterruptedException {
+        GeneratedReactor reactor = newReactor("install-at-end-resumed");
+        reactor.setConfiguration("<installAtEnd>true</installAtEnd>");
+        Build build = build(reactor, "-B", "install");
+        expectSuccess(build);
+        expectInstalledAtEnd(build, modules + 1);
+        if (!build.failed) {
+            build = rebuild(build, "resumed", "-B", "install", "-rf", ":" + GeneratedReactor.moduleName(modules / 2));
+            expectSuccess(build);
+            expectInstalledAtEnd(build, modules - modules / 2);
+        }
+        finish(build);
+    }
+
+    /**
+     * Modules skipping deployment still count towards the end of the build, the last one included.
+     */
+    private void checkDeployAtEndSkipped() throws IOException, InterruptedException {
+        GeneratedReactor reactor = newReactor("deploy-at-end-skipped");
+        reactor.setConfiguration("<deployAtEnd>true</deployAtEnd>");
+        String skipped = GeneratedReactor.moduleName(modules - 1);
+        reactor.setModuleProperties(modules - 1, "<maven.deploy.skip>true</maven.deploy.skip>");
+        Build build = build(reactor, "-B", "deploy");
+        expectSuccess(build);
+        List<String> deployed = reactor.getArtifactIds();
+        deployed.remove(skipped);
+        expectDeployed(build, deployed);
+        if (!reactor.getDeployedVersions(skipped).isEmpty()) {
+            fail(build, "deployed " + skipped + " although it skips deployment");
+        }
+        expectFlushed(build);
+        finish(build);
+    }
+
+    /**
+     * A repository refusing an upload for a while delays the deployment but leaves every module deployed, metadata
+     * included.
+     */
+    private void checkDeployRetried() throws IOException, InterruptedException {
+        GeneratedReactor reactor = newReactor("deploy-retried");
+        reactor.setConfiguration("<deployAtEnd>true</deployAtEnd><retryFailedDeploymentCount>3"
+                + "</retryFailedDeploymentCount><retryInitialDelay>100</retryInitialDelay>");
+        FlakyRepository repository = new FlakyRepository(reactor.getRepository());
+        repository.failFirstPomUpload(GeneratedReactor.moduleName(1));
+        repository.start();
+        Build build;
+        try {
+            reactor.setRepositoryUrl(repository.getUrl());
+            build = build(reactor, "-B", "deploy");
+        } finally {
+            repository.stop();
+        }
+        expectSuccess(build);
+        if (repository.getFailed() == 0) {
+            fail(build, "never had an upload refused");
+        } else if (!build.output.contains(RETRYING)) {
+            fail(build, "did not retry the refused upload");
+        }
+        expectDeployed(build, reactor.getArtifactIds());
+        for (String artifactId : reactor.getArtifactIds()) {
+            File artifactDir = new File(reactor.getRepository(), GROUP_ID.replace('.', '/') + "/" + artifactId);
+            if (artifactDir.isDirectory()
+                    && FileUtils.getFiles(artifactDir, "**/*-SNAPSHOT/maven-metadata.xml", null).isEmpty()) {
+                fail(build, "deployed " + artifactId + " without its snapshot metadata");
+            }
+        }
+        finish(build);
+    }
+
+    /**
+     * Deploying the same modules again with skipUnchanged reads the remote checksums and uploads nothing.
+     */
+    private void checkSkipUnchanged() throws IOException, InterruptedException {
+        GeneratedReactor reactor = newReactor("skip-unchanged");
+        FlakyRepository repository = new FlakyRepository(reactor.getRepository());
+        repository.start();
+        Build build;
+        try {
+            reactor.setRepositoryUrl(repository.getUrl());
+            build = build(reactor, "-B", "deploy");
+            expectSuccess(build);
+            expectDeployed(build, reactor.getArtifactIds());
+            if (!build.failed) {
+                repository.resetUploads();
+                build = rebuild(build, "unchanged", "-B", "deploy", "-DskipUnchanged=true");
+                expectSuccess(build);
+                Matcher unchanged = UNCHANGED.matcher(build.output);
+                int skipped = 0;
+                while (unchanged.find()) {
+                    skipped++;
+                }
+                if (skipped != modules + 1) {
+                    fail(build, "skipped " + skipped + " unchanged modules instead of " + (modules + 1));
+                }
+                if (!repository.getUploads().isEmpty()) {
+                    fail(build, "uploaded " + repository.getUploads().keySet() + " although nothing changed");
+                }
+            }
+        } finally {
+            repository.stop();
+        }
+        finish(build);
+    }
+
+    /**
+     * A module depending on another through a version property of its own deploys its POM with the property pointing
+     * at the final version.
+     */
+    private void checkPropertyVersion() throws IOException, InterruptedException {
+        GeneratedReactor reactor = newReactor("property-version");
+        reactor.setDependencyVersion("${first.version}");
+        for (int i = 1; i < modules; i++) {
+            reactor.setModuleProperties(i, "<first.version>1.0-SNAPSHOT</first.version>");
+        }
+        Build build = build(reactor, "-B", "deploy");
+        expectSuccess(build);
+        if (build.output.contains(STALE_REFERENCE)) {
+            fail(build, "left a reference to a reactor module at its original version");
+        }
+        File moduleDir = new File(reactor.getRepository(), GROUP_ID.replace('.', '/') + "/"
+                + GeneratedReactor.moduleName(modules - 1));
+        List<File> poms = new ArrayList<File>();
+        if (moduleDir.isDirectory()) {
+            // plexus-utils returns a raw list
+            for (Object pom : FileUtils.getFiles(moduleDir, "**/*.pom", null)) {
+                poms.add((File) pom);
+            }
+        }
+        if (poms.isEmpty()) {
+            fail(build, "did not deploy " + GeneratedReactor.moduleName(modules - 1));
+        } else if (!FileUtils.fileRead(poms.get(0), "UTF-8").contains(
+                "<first.version>feature/property-version-SNAPSHOT</first.version>")) {
+            fail(build, "deployed " + poms.get(0) + " with the original version property");
+        }
+        finish(build);
+    }
+
+    private GeneratedReactor newReactor(String name) throws IOException, InterruptedException {
+        GeneratedReactor reactor = new GeneratedReactor(GROUP_ID, name, modules);
+        reactor.setPluginVersion(pluginVersion);
+        return reactor;
+    }
+
+    private Build build(GeneratedReactor reactor, String... arguments) throws IOException, InterruptedException {
+        String name = reactor.getDirectory().getName();
+        reactor.create("feature/" + name.substring(0, name.lastIndexOf('-')));
+        return run(reactor, new File(reactor.getDirectory(), "build.log"), arguments);
+    }
+
+    /**
+     * Builds the reactor of an earlier build again, without recreating it.
+     */
+    private Build rebuild(Build previous, String name, String... arguments) throws IOException,
+            InterruptedException {
+        return run(previous.reactor, new File(previous.reactor.getDirectory(), name + ".log"), arguments);
+    }
+
+    private Build run(GeneratedReactor reactor, File log, String... arguments) throws IOException,
+            InterruptedException {
+        int exitCode = reactor.build(mvn, log, arguments);
+        Build build = new Build(reactor, log, exitCode, FileUtils.fileRead(log, "UTF-8"));
+        Matcher skipped = SKIPPED.matcher(build.output);
+        if (build.exitCode == 0) {
+            while (skipped.find()) {
+                fail(build, "reported success but skipped " + skipped.group(1));
+            }
+        }
+        return build;
+    }
+
+    private void expectSuccess(Build build) {
+        if (build.exitCode != 0) {
+            fail(build, "failed with exit code " + build.exitCode);
+        }
+    }
+
+    private void expectDeployed(Build build, List<String> artifactIds) {
+        for (String artifactId : artifactIds) {
+            if (build.reactor.getDeployedVersions(artifactId).isEmpty()) {
+                fail(build, "did not deploy " + artifactId);
+            }
+        }
+    }
+
+    /**
+     * Expects a single installation at the end of the build, covering the given number of modules.
+     */
+    private void expectInstalledAtEnd(Build build, int artifacts) {
+        Matcher installed = INSTALLED.matcher(build.output);
+        if (!installed.find()) {
+            fail(build, "never installed the queued modules");
+        } else if (Integer.parseInt(installed.group(1)) != artifacts) {
+            fail(build, "installed " + installed.group(1) + " modules at the end instead of " + artifacts);
+        } else if (installed.find()) {
+            fail(build, "installed at the end more than once");
+        }
+        expectFlushed(build);
+    }
+
+    private void expectFlushed(Build build) {
+        if (build.output.contains(NEVER_PROCESSED)) {
+            fail(build, "left work queued at the end of the build");
+        }
+    }
+
+    private void fail(Build build, String message) {
+        failures.add(build.reactor.getDirectory().getName() + " " + message + ", see " + build.log);
+        build.failed = true;
+    }
+
+    private void finish(Build build) throws IOException {
+        String name = build.reactor.getDirectory().getName();
+        if (keep || build.failed) {
+            System.out.println((build.failed ? "FAILED " : "OK ") + name + ", kept " + build.reactor.getDirectory());
+        } else {
+            System.out.println("OK " + name);
+            build.reactor.delete();
+        }
+    }
+
+    private static class Build {
+        private final GeneratedReactor reactor;
+        private final File log;
+        private final int exitCode;
+        private final String output;
+        private boolean failed;
+
+        Build(GeneratedReactor reactor, File log, int exitCode, String output) {
+            this.reactor = reactor;
+            this.log = log;
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.inigma.maven.benchmark;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.project.MavenProject;
+import org.inigma.maven.ReactorVersions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Re-keys the reactor's <code>projectsByGAV</code> map the way gitVersion does, for reactors of 10 to 5000 modules
+ * that all get a new version. The map is rebuilt before every invocation and that is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReactorMapBenchmark {
+    private static final String ORIGINAL_VERSION = "1.0-SNAPSHOT";
+    private static final String FINAL_VERSION = "feature-ABC-1234-SNAPSHOT";
+
+    @Param({"10", "100", "1000", "5000"})
+    public int entries;
+
+    private MavenProject[] projects;
+    private ReactorVersions versions;
+    private Map<String, MavenProject> projectsByGAV;
+
+    @Setup(Level.Trial)
+    public void createReactor() {
+        projects = new MavenProject[entries];
+        versions = new ReactorVersions();
+        for (int i = 0; i < entries; i++) {
+            MavenProject project = new MavenProject();
+            project.setGroupId("org.example.group" + i % 20);
+            project.setArtifactId("module-" + i);
+            project.setVersion(FINAL_VERSION);
+            projects[i] = project;
+            versions.put(project, ORIGINAL_VERSION, FINAL_VERSION);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createMap() {
+        projectsByGAV = new HashMap<String, MavenProject>();
+        for (MavenProject project : projects) {
+            projectsByGAV.put(project.getGroupId() + ":" + project.getArtifactId() + ":" + ORIGINAL_VERSION, project);
+        }
+    }
+
+    @Benchmark
+    public List<MavenProject> rekey() {
+        return versions.rekey(projectsByGAV);
+    }
+}
@@ -0,0 +1,261 @@
+package org.inigma.maven.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Builds generated reactors of increasing size with gitVersion, pomInstall and pomDeploy against a file repository,
+ * and fails when the plugin's overhead grows worse than linearly with the number of modules or regresses past a
+ * stored baseline.
+ * <p/>
+ * Every reactor is a parent with <code>size</code> POM modules that all depend on the first one, committed to a
+ * temporary git repository on a feature branch. Each size is built with a separate <code>mvn deploy</code> process,
+ * timed from the outside, and the stage timings, peak heap and open file descriptors are taken from the
+ * <code>scm-version-metrics.json</code> report the plugin writes. Usage:
+ * <pre>
+ * java -cp target/benchmarks.jar org.inigma.maven.benchmark.ScaleHarness [--sizes 50,500,2000] [--mvn mvn]
+ *      [--baseline scale-baseline.properties] [--update-baseline] [--tolerance 0.5] [--min-millis 200]
+ *      [--output target/scale-results.json] [--keep]
+ * </pre>
+ * The generated modules are installed to the local repository under the <code>org.inigma.maven.scale</code> group.
+ */
+public class ScaleHarness {
+    private static final String GROUP_ID = "org.inigma.maven.scale";
+    private static final String WALL = "wallMs";
+    private static final String PEAK_HEAP = "peakHeapMb";
+    private static final String FILE_DESCRIPTORS = "openFileDescriptors";
+    private static final Pattern STAGE = Pattern.compile("\"(\\w+)\": \\{\"count\": (\\d+), \"totalMs\": ([0-9.]+)");
+    private static final Pattern JVM = Pattern.compile(
+            "\"peakHeapMb\": (-?\\d+), \"openFileDescriptors\": (-?\\d+)");
+
+    private String mvn = "mvn";
+    private int[] sizes = {50, 500, 2000};
+    private double tolerance = 0.5;
+    private double minMillis = 200;
+    private File baseline = new File("scale-baseline.properties");
+    private boolean updateBaseline;
+    private File output = new File("target/scale-results.json");
+    private boolean keep;
+    private String pluginVersion;
+
+    public static void main(String[] args) throws Exception {
+        ScaleHarness harness = new ScaleHarness();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ("--sizes".equals(arg)) {
+                String[] values = args[++i].split(",");
+                harness.sizes = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    harness.sizes[j] = Integer.parseInt(values[j].trim());
+                }
+            } else if ("--mvn".equals(arg)) {
+                harness.mvn = args[++i];
+            } else if ("--baseline".equals(arg)) {
+                harness.baseline = new File(args[++i]);
+            } else if ("--update-baseline".equals(arg)) {
+                harness.updateBaseline = true;
+            } else if ("--tolerance".equals(arg)) {
+                harness.tolerance = Double.parseDouble(args[++i]);
+            } else if ("--min-millis".equals(arg)) {
+                harness.minMillis = Double.parseDouble(args[++i]);
+            } else if ("--output".equals(arg)) {
+                harness.output = new File(args[++i]);
+            } else if ("--keep".equals(arg)) {
+                harness.keep = true;
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        List<String> failures = harness.run();
+        for (String failure : failures) {
+            System.err.println("FAILED: " + failure);
+        }
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+
+    private List<String> run() throws IOException, InterruptedException {
+        pluginVersion = GeneratedReactor.readPluginVersion();
+        List<Result> results = new ArrayList<Result>();
+        List<String> failures = new ArrayList<String>();
+        for (int size : sizes) {
+            Result result = build(size, failures);
+            if (result != null) {
+                System.out.println(result);
+                results.add(result);
+            }
+        }
+
+        checkGrowth(results, failures);
+        Properties stored = new Properties();
+        if (baseline.isFile()) {
+            InputStream in = new FileInputStream(baseline);
+            try {
+                stored.load(in);
+            } finally {
+                IOUtil.close(in);
+            }
+            checkBaseline(results, stored, failures);
+        }
+        if (updateBaseline && failures.isEmpty()) {
+            for (Result result : results) {
+                for (Map.Entry<String, Double> metric : result.metrics.entrySet()) {
+                    stored.setProperty(result.size + "." + metric.getKey(), format(metric.getValue()));
+                }
+            }
+            writeBaseline(stored);
+            System.out.println("Updated baseline " + baseline);
+        }
+        writeResults(results);
+        return failures;
+    }
+
+    private Result build(int size, List<String> failures) throws IOException, InterruptedException {
+        GeneratedReactor reactor = new GeneratedReactor(GROUP_ID, "scale-" + size, size);
+        reactor.setPluginVersion(pluginVersion);
+        try {
+            reactor.create("feature/scale-" + size);
+
+            File log = new File(reactor.getDirectory(), "build.log");
+            long start = System.nanoTime();
+            int exitCode = reactor.build(mvn, log, "-B", "deploy");
+            double wall = (System.nanoTime() - start) / 1000000.0;
+            if (exitCode != 0) {
+                failures.add("Build of " + size + " modules failed with exit code " + exitCode + ", see " + log);
+                keep = true;
+                return null;
+            }
+
+            File report = new File(reactor.getReactor(), "target/scm-version-metrics.json");
+            if (!report.isFile()) {
+                failures.add("Build of " + size + " modules wrote no " + report);
+                keep = true;
+                return null;
+            }
+            Result result = new Result(size);
+            result.metrics.put(WALL, wall);
+            String json = FileUtils.fileRead(report, "UTF-8");
+            Matcher stage = STAGE.matcher(json);
+            while (stage.find()) {
+                result.metrics.put(stage.group(1) + "Ms", Double.parseDouble(stage.group(3)));
+            }
+            Matcher jvm = JVM.matcher(json);
+            if (jvm.find()) {
+                result.metrics.put(PEAK_HEAP, Double.parseDouble(jvm.group(1)));
+                result.metrics.put(FILE_DESCRIPTORS, Double.parseDouble(jvm.group(2)));
+            }
+            return result;
+        } finally {
+            if (keep) {
+                System.out.println("Kept " + reactor.getDirectory());
+            } else {
+                reactor.delete();
+            }
+        }
+    }
+
+    /**
+     * Compares the time every stage spends per module with the next smaller reactor. Stages below the minimum total
+     * are left out, their timings are mostly noise.
+     */
+    private void checkGrowth(List<Result> results, List<String> failures) {
+        for (int i = 1; i < results.size(); i++) {
+            Result smaller = results.get(i - 1);
+            Result larger = results.get(i);
+            for (Map.Entry<String, Double> metric : larger.metrics.entrySet()) {
+                String name = metric.getKey();
+                Double before = smaller.metrics.get(name);
+                if (!isStage(name) || before == null || before <= 0 || metric.getValue() < minMillis) {
+                    continue;
+                }
+                double perModuleBefore = before / smaller.size;
+                double perModule = metric.getValue() / larger.size;
+                if (perModule > perModuleBefore * (1 + tolerance)) {
+                    failures.add(name + " grows worse than linearly: " + format(perModuleBefore) + " ms per module at "
+                            + smaller.size + " modules, " + format(perModule) + " ms per module at " + larger.size);
+                }
+            }
+        }
+    }
+
+    private void checkBaseline(List<Result> results, Properties stored, List<String> failures) {
+        for (Result result : results) {
+            for (Map.Entry<String, Double> metric : result.metrics.entrySet()) {
+                String name = metric.getKey();
+                String value = stored.getProperty(result.size + "." + name);
+                if (value == null || FILE_DESCRIPTORS.equals(name) && metric.getValue() < 0) {
+                    continue;
+                }
+                double expected = Double.parseDouble(value);
+                double actual = metric.getValue();
+                boolean timing = isStage(name) || WALL.equals(name);
+                if (actual > expected * (1 + tolerance) && (!timing || actual - expected >= minMillis)) {
+                    failures.add(name + " of " + result.size + " modules regressed from " + value + " to "
+                            + format(actual));
+                }
+            }
+        }
+    }
+
+    private static boolean isStage(String name) {
+        return name.endsWith("Ms") && !WALL.equals(name);
+    }
+
+    /**
+     * Writes the baseline sorted by key and without a date, so that the checked in file only changes with its values.
+     */
+    private void writeBaseline(Properties stored) throws IOException {
+        StringBuilder sb = new StringBuilder("# scm version plugin scale baseline, see ScaleHarness\n");
+        for (Map.Entry<Object, Object> entry : new TreeMap<Object, Object>(stored).entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        GeneratedReactor.write(baseline.getAbsoluteFile(), sb.toString());
+    }
+
+    private void writeResults(List<Result> results) throws IOException {
+        StringBuilder sb = new StringBuilder("{\n  \"results\": [");
+        String separator = "\n";
+        for (Result result : results) {
+            sb.append(separator).append("    {\"modules\": ").append(result.size);
+            for (Map.Entry<String, Double> metric : result.metrics.entrySet()) {
+                sb.append(", \"").append(metric.getKey()).append("\": ").append(format(metric.getValue()));
+            }
+            sb.append('}');
+            separator = ",\n";
+        }
+        sb.append("\n  ]\n}\n");
+        GeneratedReactor.write(output.getAbsoluteFile(), sb.toString());
+        System.out.println("Wrote " + output);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static class Result {
+        private final int size;
+        private final Map<String, Double> metrics = new TreeMap<String, Double>();
+
+        Result(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return size + " modules: " + metrics;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.inigma.maven.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.inigma.maven.GitCliVersionProvider;
+import org.inigma.maven.GitDescription;
+import org.inigma.maven.GitHead;
+import org.inigma.maven.JGitVersionProvider;
+import org.inigma.maven.ScmVersionProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Asks each {@link ScmVersionProvider} for HEAD, the description and the commit time of HEAD in synthetic local
+ * repositories with a linear history, tagged half way, imported with <code>git fast-import</code>. Needs the git
+ * binary on the path. The JGit provider keeps its repository open between invocations, as it does within a build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ScmProviderBenchmark {
+    @Param({"jgit", "git"})
+    public String provider;
+
+    @Param({"100", "10000"})
+    public int commits;
+
+    private File directory;
+    private File gitDir;
+    private String head;
+    private ScmVersionProvider scmProvider;
+
+    @Setup(Level.Trial)
+    public void createRepository() throws IOException, InterruptedException {
+        directory = File.createTempFile("provider-benchmark-", "");
+        directory.delete();
+        directory.mkdirs();
+        gitDir = new File(directory, ".git");
+        git("init", "-q");
+
+        StringBuilder stream = new StringBuilder();
+        for (int i = 1; i <= commits; i++) {
+            String message = "commit " + i;
+            stream.append("commit refs/heads/feature/benchmark\nmark :").append(i).append('\n');
+            stream.append("committer Bench <bench@example.org> ").append(1500000000L + i * 60L).append(" +0000\n");
+            stream.append("data ").append(message.length()).append('\n').append(message).append('\n');
+            if (i > 1) {
+                stream.append("from :").append(i - 1).append('\n');
+            }
+            String content = "line " + i + "\n";
+            stream.append("M 100644 inline file").append(i % 50).append(".txt\ndata ").append(content.length())
+                    .append('\n').append(content).append('\n');
+        }
+        stream.append("reset refs/tags/v1.0\nfrom :").append(Math.max(1, commits / 2)).append("\n\n");
+        File input = new File(directory, "fast-import.txt");
+        FileUtils.fileWrite(input.getAbsolutePath(), "UTF-8", stream.toString());
+        ProcessBuilder builder = new ProcessBuilder("git", "fast-import", "--quiet").directory(directory)
+                .redirectInput(input).redirectErrorStream(true).redirectOutput(new File(directory, "fast-import.log"));
+        if (builder.start().waitFor() != 0) {
+            throw new IOException("git fast-import failed in " + directory);
+        }
+        git("symbolic-ref", "HEAD", "refs/heads/feature/benchmark");
+
+        scmProvider = "git".equals(provider) ? new GitCliVersionProvider() : new JGitVersionProvider();
+        head = scmProvider.getHead(gitDir, gitDir).getObjectId();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteRepository() throws IOException {
+        scmProvider.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public GitHead head() throws IOException {
+        return scmProvider.getHead(gitDir, gitDir);
+    }
+
+    @Benchmark
+    public GitDescription describe() throws IOException {
+        return scmProvider.describe(gitDir, gitDir, head);
+    }
+
+    @Benchmark
+    public Date commitTime() throws IOException {
+        return scmProvider.getCommitTime(gitDir, gitDir, head);
+    }
+
+    private void git(String... args) throws IOException, InterruptedException {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        ProcessBuilder builder = new ProcessBuilder(command).directory(directory).redirectErrorStream(true)
+                .redirectOutput(new File(directory, "git.log"));
+        if (builder.start().waitFor() != 0) {
+            throw new IOException("git " + args[0] + " failed in " + directory);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.inigma.maven.benchmark;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.inigma.maven.VersionInformation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders the final version for patterns without variables, with the default branch variable, with the formatted
+ * date, with commit ids and with all of them combined.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VersionInformationBenchmark {
+    @Param({
+            "1.0-SNAPSHOT",
+            "${scmVersion.branch}-SNAPSHOT",
+            "${scmVersion.date}-SNAPSHOT",
+            "${scmVersion.number}-${scmVersion.shortCommit}-SNAPSHOT",
+            "${scmVersion.number}-${scmVersion.branch}-${scmVersion.date}-${scmVersion.commit}-SNAPSHOT"})
+    public String pattern;
+
+    private VersionInformation version;
+
+    @Setup(Level.Trial)
+    public void createVersion() {
+        version = new VersionInformation(pattern);
+        version.setSnapshot(true);
+        version.setVersion("1.3");
+        version.setBranchName("feature/ABC-1234-faster-builds");
+        version.setCommit("3f26b01c8e7a4d5b9f0e1a2b3c4d5e6f7a8b9c0d");
+        version.setTimestamp(new Date(1384675860000L));
+    }
+
+    @Benchmark
+    public String getFinalVersion() {
+        return version.getFinalVersion();
+    }
+}
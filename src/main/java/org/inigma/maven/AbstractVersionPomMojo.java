@@ -2,20 +2,12 @@ package org.inigma.maven;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.Writer;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.artifact.repository.ArtifactRepository;
-import org.apache.maven.model.Model;
-import org.apache.maven.model.Parent;
-import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
-import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
-import org.codehaus.plexus.util.IOUtil;
-import org.codehaus.plexus.util.ReaderFactory;
-import org.codehaus.plexus.util.WriterFactory;
 import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
 
 /**
@@ -58,42 +50,42 @@ public abstract class AbstractVersionPomMojo extends AbstractMojo {
      */
     protected ArtifactRepository localRepository;
 
+    /**
+     * @parameter default-value="${project.build.directory}"
+     * @required
+     * @readonly
+     */
+    protected File buildDirectory;
+    /**
+     * @parameter default-value="${session}"
+     * @required
+     * @readonly
+     */
+    protected MavenSession session;
+
     protected File getPomFile() {
-        return getPomFile(pomFile, artifact.getVersion());
+        return getPomFile(pomFile, artifact.getVersion(), buildDirectory);
     }
 
-    protected File getPomFile(File sourceFile, String version) {
-        Reader reader = null;
-        Writer writer = null;
-        Model model;
+    /**
+     * Provides the POM with its versions rewritten, see {@link RewrittenPoms}.
+     */
+    protected File getPomFile(File sourceFile, String version, File outputDirectory) {
+        PluginMetrics metrics = getMetrics();
+        long start = metrics.start();
         try {
-            reader = ReaderFactory.newXmlReader(sourceFile);
-            model = new MavenXpp3Reader().read(reader);
-
-            File tmpFile = new File(sourceFile.getParent(), "version-branch.pom");
-            writer = WriterFactory.newXmlWriter(tmpFile);
-            Parent parent = model.getParent();
-            if (parent != null && parent.getVersion().endsWith("-SNAPSHOT")) {
-                parent.setVersion(version);
-            }
-            if (model.getVersion() != null && model.getVersion().endsWith("-SNAPSHOT")) {
-                model.setVersion(version);
-            }
-            new MavenXpp3Writer().write(writer, model);
-            tmpFile.deleteOnExit();
-            return tmpFile;
+            return RewrittenPoms.get(sourceFile, version, outputDirectory, ReactorVersions.get(session), getLog());
         } catch (IOException e) {
             getLog().error("Unable to read pom file " + sourceFile, e);
         } catch (XmlPullParserException e) {
             getLog().error("Unable to understand pom file " + sourceFile, e);
         } finally {
-            if (reader != null) {
-                IOUtil.close(reader);
-            }
-            if (writer != null) {
-                IOUtil.close(writer);
-            }
+            metrics.record(PluginMetrics.POM_REWRITE, start);
         }
         return sourceFile;
     }
+
+    protected PluginMetrics getMetrics() {
+        return PluginMetrics.get(session, getLog());
+    }
 }
@@ -0,0 +1,126 @@
+package org.inigma.maven;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+import org.sonatype.aether.RepositorySystem;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.deployment.DeployRequest;
+import org.sonatype.aether.deployment.DeploymentException;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+
+/**
+ * Deploys the artifacts of many modules with one deploy request per repository. Within a request the repository
+ * connector uploads the artifacts concurrently, limited to the configured number of threads, and only uploads the
+ * repository metadata once every artifact of the request has been transferred, so a failed upload never leaves
+ * metadata pointing at missing files.
+ * <p/>
+ * A failed request is retried as a whole rather than for the artifacts that did not make it. The deployer stops at
+ * the first failed upload without telling which others completed, and it derives the metadata of a request from the
+ * artifacts in it: retrying only the failed artifacts would upload metadata listing just those, leaving out the
+ * versions and SNAPSHOT files uploaded by the first attempt, and no metadata at all for modules whose artifacts all
+ * made it. Repeating the request uploads some files twice but publishes complete metadata. A SNAPSHOT keeps its
+ * timestamp and build number across attempts, since both come from the start of the build and the remote metadata,
+ * which a failed attempt never updates, so the repeated uploads overwrite the earlier ones.
+ */
+public class BatchDeployer {
+    private static final String[] THREAD_PROPERTIES = { "aether.connector.wagon.threads", "maven.artifact.threads" };
+
+    private final RepositorySystem repositorySystem;
+    private final RepositorySystemSession session;
+    private final Log log;
+    private int threads = 5;
+    private RetryPolicy retryPolicy;
+
+    public BatchDeployer(RepositorySystem repositorySystem, RepositorySystemSession session, Log log) {
+        this.repositorySystem = repositorySystem;
+        this.session = session;
+        this.log = log;
+        this.retryPolicy = new RetryPolicy(log);
+    }
+
+    /**
+     * @param threads the maximum number of concurrent uploads to a single repository.
+     */
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param retryPolicy how the deploy request of a repository is retried, always in full.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public void deploy(List<Item> items) throws DeploymentException {
+        Map<String, List<Item>> byRepository = new LinkedHashMap<String, List<Item>>();
+        for (Item item : items) {
+            String key = item.repository.getId() + "|" + item.repository.getUrl();
+            List<Item> group = byRepository.get(key);
+            if (group == null) {
+                group = new ArrayList<Item>();
+                byRepository.put(key, group);
+            }
+            group.add(item);
+        }
+
+        DefaultRepositorySystemSession deploySession = new DefaultRepositorySystemSession(session);
+        for (String property : THREAD_PROPERTIES) {
+            deploySession.setConfigProperty(property, String.valueOf(threads));
+        }
+        for (List<Item> group : byRepository.values()) {
+            RemoteRepository repository = group.get(0).repository;
+            DeployRequest request = new DeployRequest();
+            request.setRepository(repository);
+            for (Item item : group) {
+                request.addArtifact(item.artifact);
+            }
+            log.info("Deploying " + group.size() + " artifacts to " + repository.getId() + " (" + repository.getUrl()
+                    + ") with up to " + threads + " concurrent uploads");
+            deploy(deploySession, request);
+        }
+    }
+
+    private void deploy(final RepositorySystemSession deploySession, final DeployRequest request)
+            throws DeploymentException {
+        long bytes = 0;
+        for (Artifact artifact : request.getArtifacts()) {
+            bytes += artifact.getFile() == null ? 0 : artifact.getFile().length();
+        }
+        String description = request.getArtifacts().size() + " artifacts to " + request.getRepository().getId();
+        retryPolicy.execute(description, bytes,
+                new RetryPolicy.Attempt<DeploymentException>(DeploymentException.class) {
+                    @Override
+                    public void run() throws DeploymentException {
+                        repositorySystem.deploy(deploySession, request);
+                    }
+                });
+    }
+
+    /**
+     * An artifact, its file attached, and the repository it is deployed to.
+     */
+    public static class Item {
+        private final Artifact artifact;
+        private final RemoteRepository repository;
+
+        public Item(Artifact artifact, RemoteRepository repository) {
+            this.artifact = artifact;
+            this.repository = repository;
+        }
+
+        public Artifact getArtifact() {
+            return artifact;
+        }
+
+        public RemoteRepository getRepository() {
+            return repository;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Computes repository checksums for files in a single pass. Each file is read once through a {@link FileChannel} and
+ * every chunk is fed to all requested digests, so adding SHA-256 or SHA-512 next to MD5 and SHA-1 costs CPU but no
+ * extra I/O. Several files are processed concurrently on a bounded pool.
+ */
+public class ChecksumEngine {
+    public static final String DEFAULT_ALGORITHMS = "md5,sha1";
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final Map<String, String> ALGORITHMS = new LinkedHashMap<String, String>();
+
+    static {
+        ALGORITHMS.put("md5", "MD5");
+        ALGORITHMS.put("sha1", "SHA-1");
+        ALGORITHMS.put("sha256", "SHA-256");
+        ALGORITHMS.put("sha512", "SHA-512");
+    }
+
+    private final List<String> extensions = new ArrayList<String>();
+    private final int threads;
+
+    /**
+     * @param algorithms comma separated checksum extensions, any of md5, sha1, sha256 and sha512.
+     * @param threads the maximum number of files digested concurrently.
+     */
+    public ChecksumEngine(String algorithms, int threads) {
+        for (String algorithm : algorithms.split(",")) {
+            String extension = algorithm.trim().toLowerCase().replace("-", "");
+            if (extension.length() == 0) {
+                continue;
+            }
+            if (!ALGORITHMS.containsKey(extension)) {
+                throw new IllegalArgumentException("Unsupported checksum algorithm " + algorithm + ", expected one of "
+                        + ALGORITHMS.keySet());
+            }
+            if (!extensions.contains(extension)) {
+                extensions.add(extension);
+            }
+        }
+        this.threads = Math.max(1, threads);
+    }
+
+    public List<String> getExtensions() {
+        return extensions;
+    }
+
+    /**
+     * @return the hex encoded checksums of the file keyed by their extension, in the configured order.
+     */
+    public Map<String, String> calculate(File file) throws IOException {
+        MessageDigest[] digests = new MessageDigest[extensions.size()];
+        for (int i = 0; i < digests.length; i++) {
+            digests[i] = newDigest(extensions.get(i));
+        }
+
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(channel.size(), 1)));
+            while (channel.read(buffer) != -1) {
+                for (MessageDigest digest : digests) {
+                    digest.update(buffer.array(), 0, buffer.position());
+                }
+                buffer.clear();
+            }
+        } finally {
+            IOUtil.close(in);
+        }
+
+        Map<String, String> checksums = new LinkedHashMap<String, String>();
+        for (int i = 0; i < digests.length; i++) {
+            checksums.put(extensions.get(i), toHex(digests[i].digest()));
+        }
+        return checksums;
+    }
+
+    /**
+     * Writes a checksum file next to each of the given files, <code>artifact.jar.sha1</code> and so on.
+     */
+    public void install(List<File> files) throws IOException {
+        if (files.size() <= 1 || threads == 1) {
+            for (File file : files) {
+                install(file);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>(files.size());
+            for (final File file : files) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        install(file);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                await(future);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void install(File file) throws IOException {
+        for (Map.Entry<String, String> checksum : calculate(file).entrySet()) {
+            File checksumFile = new File(file.getAbsolutePath() + "." + checksum.getKey());
+            File tmpFile = new File(checksumFile.getAbsolutePath() + ".tmp");
+            FileUtils.fileWrite(tmpFile.getAbsolutePath(), "UTF-8", checksum.getValue());
+            checksumFile.delete();
+            if (!tmpFile.renameTo(checksumFile)) {
+                tmpFile.delete();
+                throw new IOException("Unable to move " + tmpFile + " to " + checksumFile);
+            }
+        }
+    }
+
+    private static void await(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while calculating checksums");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static MessageDigest newDigest(String extension) {
+        try {
+            return MessageDigest.getInstance(ALGORITHMS.get(extension));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the hex encoded checksum of the text encoded in UTF-8.
+     */
+    static String calculate(String extension, String text) {
+        try {
+            return toHex(newDigest(extension).digest(text.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,182 @@
+package org.inigma.maven;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Answers by running the <code>git</code> binary of the host, which keeps up with repository features such as
+ * commit-graph files, reftables and multi-pack indexes that JGit 3.1 does not know about, at the price of starting a
+ * process per question. HEAD and its branch come from a single <code>rev-parse</code> call.
+ * <p/>
+ * Descriptions use <code>git describe --tags</code>, which picks the tag with the fewest commits in between where
+ * {@link GitDescription#describe} picks the most recently committed one; the two only differ when several tags are
+ * reachable through merges.
+ */
+public class GitCliVersionProvider implements ScmVersionProvider {
+    public static final String NAME = "git";
+    private static final Map<String, Boolean> AVAILABLE = new HashMap<String, Boolean>();
+
+    private final String executable;
+
+    public GitCliVersionProvider() {
+        this("git");
+    }
+
+    public GitCliVersionProvider(String executable) {
+        this.executable = executable;
+    }
+
+    /**
+     * @return true if the executable runs, checked once per JVM.
+     */
+    public static boolean isAvailable(String executable) {
+        synchronized (AVAILABLE) {
+            Boolean available = AVAILABLE.get(executable);
+            if (available == null) {
+                try {
+                    available = run(new ProcessBuilder(executable, "--version"), new StringBuilder()) != null;
+                } catch (IOException e) {
+                    available = false;
+                }
+                AVAILABLE.put(executable, available);
+            }
+            return available;
+        }
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public GitHead getHead(File gitDir, File commonDir) throws IOException {
+        StringBuilder errors = new StringBuilder();
+        List<String> lines = git(gitDir, errors, "rev-parse", "HEAD", "--symbolic-full-name", "HEAD");
+        if (lines == null) {
+            // no commits yet, HEAD can only be read as a symbolic ref
+            lines = git(gitDir, new StringBuilder(), "symbolic-ref", "-q", "HEAD");
+            return new GitHead(lines == null || lines.isEmpty() ? null : last(lines), null);
+        }
+        if (lines.size() < 2) {
+            throw new IOException("Unexpected output of git rev-parse in " + gitDir + ": " + lines + reason(errors));
+        }
+        String refName = lines.get(lines.size() - 1);
+        return new GitHead(refName.startsWith("refs/") ? refName : null, lines.get(lines.size() - 2));
+    }
+
+    public GitDescription describe(File gitDir, File commonDir, String objectId) throws IOException {
+        String shortId = GitDescription.abbreviate(objectId);
+        if (GitDescription.isShallow(commonDir)) {
+            return new GitDescription(null, 0, shortId);
+        }
+
+        List<String> lines = git(gitDir, new StringBuilder(), "describe", "--tags", "--long", objectId);
+        if (lines == null || lines.isEmpty()) {
+            // no tag reachable
+            StringBuilder errors = new StringBuilder();
+            lines = git(gitDir, errors, "rev-list", "--count", objectId);
+            if (lines == null || lines.isEmpty()) {
+                throw new IOException("Unable to describe " + objectId + " in " + gitDir + reason(errors));
+            }
+            return new GitDescription(null, Integer.parseInt(last(lines)), shortId);
+        }
+
+        // tag-<distance>-g<abbreviated id>, where the tag may contain dashes itself
+        String described = last(lines);
+        String tagAndDistance = described.substring(0, described.lastIndexOf("-g"));
+        int separator = tagAndDistance.lastIndexOf('-');
+        String tag = tagAndDistance.substring(0, separator);
+        int distance = Integer.parseInt(tagAndDistance.substring(separator + 1));
+        return new GitDescription(tag, distance, distance == 0 ? tag : tag + "-" + distance + "-g" + shortId);
+    }
+
+    public Date getCommitTime(File gitDir, File commonDir, String objectId) throws IOException {
+        StringBuilder errors = new StringBuilder();
+        List<String> lines = git(gitDir, errors, "show", "-s", "--format=%ct", objectId);
+        if (lines == null || lines.isEmpty()) {
+            throw new IOException("Unable to read the commit time of " + objectId + " in " + gitDir + reason(errors));
+        }
+        return new Date(Long.parseLong(last(lines)) * 1000L);
+    }
+
+    public void close() {
+        // nothing is kept open between calls
+    }
+
+    @Override
+    public String toString() {
+        return NAME + "[" + executable + "]";
+    }
+
+    /**
+     * @param errors receives what git wrote to its error stream.
+     * @return the lines git wrote to its output stream or null if git exited with an error.
+     */
+    private List<String> git(File gitDir, StringBuilder errors, String... arguments) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(executable);
+        command.add("--git-dir=" + gitDir.getAbsolutePath());
+        command.addAll(Arrays.asList(arguments));
+        return run(new ProcessBuilder(command), errors);
+    }
+
+    /**
+     * Reads the output stream of the process while a second thread drains its error stream, so that warnings never
+     * end up among the parsed lines and neither stream can fill up and block the process.
+     */
+    private static List<String> run(ProcessBuilder builder, StringBuilder errors) throws IOException {
+        final Process process = builder.start();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        Thread drain = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    IOUtil.copy(process.getErrorStream(), stderr);
+                } catch (IOException e) {
+                    // the process is gone, keep what was read
+                } finally {
+                    IOUtil.close(process.getErrorStream());
+                }
+            }
+        }, "git-stderr");
+        drain.setDaemon(true);
+        drain.start();
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.trim().length() > 0) {
+                    lines.add(line.trim());
+                }
+            }
+            int exitCode = process.waitFor();
+            drain.join();
+            errors.append(new String(stderr.toByteArray(), "UTF-8").trim());
+            return exitCode == 0 ? lines : null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + builder.command());
+        } finally {
+            IOUtil.close(reader);
+            process.destroy();
+        }
+    }
+
+    private static String reason(StringBuilder errors) {
+        return errors.length() == 0 ? "" : ": " + errors;
+    }
+
+    private static String last(List<String> lines) {
+        return lines.get(lines.size() - 1);
+    }
+}
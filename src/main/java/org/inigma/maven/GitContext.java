@@ -0,0 +1,364 @@
+package org.inigma.maven;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.util.IOUtil;
+import org.sonatype.aether.SessionData;
+
+/**
+ * Build scoped cache of git directory lookups and git information. Every directory visited while looking for a
+ * git directory is remembered, so sibling modules only probe their own directory before hitting the entry left by
+ * the first module. HEAD is resolved once per git directory. Whatever cannot be read from the git directory directly
+ * is asked of a {@link ScmVersionProvider}, JGit in process, the git binary, or either chosen per repository by its
+ * size; providers keep their handles open until {@link #close()} is called.
+ * <p/>
+ * Resolved HEADs and descriptions are also kept in JVM wide {@link StampedCache}s, so builds in a long lived JVM skip
+ * the git work for as long as HEAD, the refs and the tags are untouched.
+ */
+public class GitContext {
+    public static final String PROVIDER_AUTO = "auto";
+    /**
+     * Packs of at least this size make the auto provider use the git binary, whose startup cost is then small next to
+     * JGit 3.1 reading large packs without commit-graph or bitmap support.
+     */
+    public static final long AUTO_PACK_THRESHOLD = 64L * 1024 * 1024;
+    private static final String SESSION_KEY = ReactorVersions.sessionKey(GitContext.class);
+    private static final String GITDIR_PREFIX = "gitdir:";
+    private static final File NOT_FOUND = new File("");
+    private static final StampedCache<File, GitHead> HEADS = new StampedCache<File, GitHead>(256);
+    private static final StampedCache<String, GitDescription> DESCRIPTIONS =
+            new StampedCache<String, GitDescription>(256);
+
+    private final Map<File, File> gitDirs = new HashMap<File, File>();
+    private final Map<File, ScmVersionProvider> providers = new HashMap<File, ScmVersionProvider>();
+    private String providerName = JGitVersionProvider.NAME;
+    private JGitVersionProvider jgit;
+    private GitCliVersionProvider cli;
+    private final Map<File, GitHead> heads = new HashMap<File, GitHead>();
+    private final Map<File, GitDescription> descriptions = new HashMap<File, GitDescription>();
+    private final Map<File, Date> commitTimes = new HashMap<File, Date>();
+    private int hits;
+    private int misses;
+
+    public static GitContext get(MavenSession session) {
+        SessionData data = session.getRepositorySession().getData();
+        GitContext context = (GitContext) data.get(SESSION_KEY);
+        if (context == null) {
+            data.set(SESSION_KEY, null, new GitContext());
+            context = (GitContext) data.get(SESSION_KEY);
+        }
+        return context;
+    }
+
+    /**
+     * Locates the git directory governing the given directory by walking up its parents.
+     *
+     * @return the git directory or null if the directory is not part of a git checkout.
+     */
+    public synchronized File findGitDir(File directory) {
+        List<File> visited = new ArrayList<File>();
+        File gitDir = null;
+        boolean hit = false;
+        for (File dir = directory.getAbsoluteFile(); dir != null; dir = dir.getParentFile()) {
+            File cached = gitDirs.get(dir);
+            if (cached != null) {
+                gitDir = cached;
+                hit = true;
+                break;
+            }
+            visited.add(dir);
+            gitDir = resolveDotGit(dir);
+            if (gitDir != null) {
+                break;
+            }
+        }
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+
+        if (gitDir == null) {
+            gitDir = NOT_FOUND;
+        }
+        for (File dir : visited) {
+            gitDirs.put(dir, gitDir);
+        }
+        return gitDir == NOT_FOUND ? null : gitDir;
+    }
+
+    /**
+     * @return true if the name selects a provider, see {@link #setProvider(String)}.
+     */
+    public static boolean isProvider(String name) {
+        return JGitVersionProvider.NAME.equals(name) || GitCliVersionProvider.NAME.equals(name)
+                || PROVIDER_AUTO.equals(name);
+    }
+
+    /**
+     * @param providerName <code>jgit</code>, <code>git</code> or <code>auto</code>.
+     */
+    public synchronized void setProvider(String providerName) {
+        if (!isProvider(providerName)) {
+            throw new IllegalArgumentException("Unknown scm provider " + providerName);
+        }
+        if (!providerName.equals(this.providerName)) {
+            this.providerName = providerName;
+            providers.clear();
+        }
+    }
+
+    /**
+     * @return the provider answering for the git directory, chosen once per git directory.
+     */
+    public synchronized ScmVersionProvider getProvider(File gitDir) {
+        ScmVersionProvider provider = providers.get(gitDir);
+        if (provider == null) {
+            boolean useCli = GitCliVersionProvider.NAME.equals(providerName);
+            if (PROVIDER_AUTO.equals(providerName)) {
+                File commonDir = getCommonDir(gitDir);
+                useCli = GitCliVersionProvider.isAvailable("git") && (new File(commonDir, "reftable").exists()
+                        || getPackSize(commonDir) >= AUTO_PACK_THRESHOLD);
+            }
+            if (useCli) {
+                if (cli == null) {
+                    cli = new GitCliVersionProvider();
+                }
+                provider = cli;
+            } else {
+                if (jgit == null) {
+                    jgit = new JGitVersionProvider();
+                }
+                provider = jgit;
+            }
+            providers.put(gitDir, provider);
+        }
+        return provider;
+    }
+
+    private long getPackSize(File commonDir) {
+        long size = 0;
+        File[] packs = new File(commonDir, "objects/pack").listFiles();
+        if (packs != null) {
+            for (File pack : packs) {
+                if (pack.getName().endsWith(".pack")) {
+                    size += pack.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Resolves HEAD of the git directory once per build. The {@link GitHeadResolver} reading the git directory is
+     * tried first and the provider is only asked for layouts it does not understand.
+     */
+    public synchronized GitHead getHead(File gitDir) throws IOException {
+        GitHead head = heads.get(gitDir);
+        if (head == null) {
+            head = HEADS.get(gitDir);
+        }
+        if (head == null) {
+            File commonDir = getCommonDir(gitDir);
+            GitHead probe = GitHeadResolver.resolve(gitDir, commonDir);
+            if (probe != null) {
+                // the first resolution only tells which ref files to stamp before resolving the HEAD that is cached
+                String refName = probe.getRefName();
+                StampedCache.Stamps stamps = getHeadStamps(gitDir, commonDir, refName);
+                head = GitHeadResolver.resolve(gitDir, commonDir);
+                if (head != null && (refName == null ? head.getRefName() == null : refName.equals(head.getRefName()))) {
+                    HEADS.put(gitDir, head, stamps);
+                }
+            }
+            if (head == null) {
+                head = getProvider(gitDir).getHead(gitDir, commonDir);
+            }
+        }
+        heads.put(gitDir, head);
+        return head;
+    }
+
+    /**
+     * Takes over what a {@link GitPrefetch} worked out for the git directory.
+     */
+    synchronized void prefetched(File gitDir, GitHead head, Date commitTime, GitDescription description) {
+        if (heads.containsKey(gitDir)) {
+            return;
+        }
+        heads.put(gitDir, head);
+        if (commitTime != null) {
+            commitTimes.put(gitDir, commitTime);
+        }
+        if (description != null) {
+            descriptions.put(gitDir, description);
+        }
+    }
+
+    /**
+     * @return the stamps of the files HEAD is resolved from when it points at the ref, to take before resolving it as
+     * {@link StampedCache#put} requires.
+     */
+    private StampedCache.Stamps getHeadStamps(File gitDir, File commonDir, String refName) {
+        List<File> files = new ArrayList<File>();
+        files.add(new File(gitDir, "HEAD"));
+        files.add(new File(commonDir, "packed-refs"));
+        if (refName != null) {
+            files.add(new File(gitDir, refName));
+            if (!commonDir.equals(gitDir)) {
+                files.add(new File(commonDir, refName));
+            }
+        }
+        return StampedCache.Stamps.of(files.toArray(new File[files.size()]));
+    }
+
+    /**
+     * Describes HEAD of the git directory, reusing the on disk cache when neither HEAD, the tags nor the provider
+     * changed and the clone is not shallow.
+     *
+     * @return the description or null if HEAD has no commits yet.
+     */
+    public synchronized GitDescription getDescription(File gitDir) throws IOException {
+        GitDescription description = descriptions.get(gitDir);
+        if (description == null) {
+            String objectId = getHead(gitDir).getObjectId();
+            if (objectId == null) {
+                return null;
+            }
+            // providers pick different tags when several are reachable, so they never share descriptions
+            ScmVersionProvider provider = getProvider(gitDir);
+            String key = gitDir.getPath() + "@" + objectId + "@" + provider.getName();
+            description = DESCRIPTIONS.get(key);
+            if (description != null) {
+                descriptions.put(gitDir, description);
+                return description;
+            }
+            File commonDir = getCommonDir(gitDir);
+            List<File> files = GitDescription.tagDirectories(commonDir);
+            files.add(new File(commonDir, "packed-refs"));
+            files.add(new File(commonDir, "shallow"));
+            StampedCache.Stamps stamps = StampedCache.Stamps.of(files.toArray(new File[files.size()]));
+            // a shallow clone can be deepened at the same HEAD, so its incomplete history is never cached on disk
+            boolean shallow = GitDescription.isShallow(commonDir);
+            String fingerprint = GitDescription.tagsFingerprint(commonDir);
+            description = shallow ? null : GitDescription.readCache(gitDir, objectId, fingerprint, provider.getName());
+            if (description == null) {
+                description = provider.describe(gitDir, commonDir, objectId);
+                try {
+                    if (!shallow && !GitDescription.isShallow(commonDir)) {
+                        GitDescription.writeCache(gitDir, objectId, fingerprint, provider.getName(), description);
+                    }
+                } catch (IOException e) {
+                    // read only checkout, the description is simply recomputed next time
+                }
+            }
+            DESCRIPTIONS.put(key, description, stamps);
+            descriptions.put(gitDir, description);
+        }
+        return description;
+    }
+
+    /**
+     * @return the committer time of HEAD, or null if HEAD has no commits yet.
+     */
+    public synchronized Date getCommitTime(File gitDir) throws IOException {
+        Date commitTime = commitTimes.get(gitDir);
+        if (commitTime == null) {
+            String objectId = getHead(gitDir).getObjectId();
+            if (objectId == null) {
+                return null;
+            }
+            commitTime = getProvider(gitDir).getCommitTime(gitDir, getCommonDir(gitDir), objectId);
+            commitTimes.put(gitDir, commitTime);
+        }
+        return commitTime;
+    }
+
+    /**
+     * @return the directory holding the objects and shared refs, which differs from the git directory for worktrees.
+     */
+    public File getCommonDir(File gitDir) {
+        File commonDirFile = new File(gitDir, "commondir");
+        if (commonDirFile.isFile()) {
+            try {
+                String path = readFirstLine(commonDirFile);
+                if (path != null) {
+                    File commonDir = new File(path);
+                    if (!commonDir.isAbsolute()) {
+                        commonDir = new File(gitDir, path);
+                    }
+                    return commonDir;
+                }
+            } catch (IOException e) {
+                // treat as a regular repository
+            }
+        }
+        return gitDir;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Releases every open repository handle. Directory lookups stay cached and repositories are reopened on demand.
+     */
+    public synchronized void close() {
+        if (jgit != null) {
+            jgit.close();
+        }
+        if (cli != null) {
+            cli.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "GitContext[hits=" + hits + ", misses=" + misses + ", provider=" + providerName + ", jgit=" + jgit
+                + ", git=" + cli + "]";
+    }
+
+    private File resolveDotGit(File dir) {
+        File dotGit = new File(dir, ".git");
+        if (dotGit.isDirectory()) {
+            return new File(dotGit, "HEAD").isFile() ? dotGit : null;
+        }
+        if (dotGit.isFile()) {
+            try {
+                String line = readFirstLine(dotGit);
+                if (line != null && line.startsWith(GITDIR_PREFIX)) {
+                    File gitDir = new File(line.substring(GITDIR_PREFIX.length()).trim());
+                    if (!gitDir.isAbsolute()) {
+                        gitDir = new File(dir, gitDir.getPath());
+                    }
+                    return gitDir.isDirectory() ? gitDir : null;
+                }
+            } catch (IOException e) {
+                // not a usable git file, keep looking upwards
+            }
+        }
+        return null;
+    }
+
+    static String readFirstLine(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line = reader.readLine();
+            return line == null ? null : line.trim();
+        } finally {
+            IOUtil.close(reader);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.codehaus.plexus.util.IOUtil;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * The <code>git describe --tags --always</code> style information of a commit: the nearest reachable tag and the
+ * number of commits since it. Computing it walks the history, so results are stored in a small properties file in the
+ * git directory keyed by the HEAD commit, a fingerprint of the tags and the provider that computed them, as providers
+ * may pick different tags, letting unchanged checkouts skip the walk.
+ * Without any tags the distance is the number of commits in the history; it is then counted on from the previously
+ * cached commit when that is an ancestor, so a new commit only walks the commits since.
+ * <p/>
+ * Descriptions of shallow clones stand for an incomplete history and are never cached: the file only holds entries
+ * marked as computed from the complete history, so fetching the rest of the history at the same HEAD describes the
+ * commit anew instead of reusing or counting on from a distance of 0.
+ */
+public class GitDescription {
+    static final String CACHE_FILE = "scm-version.cache";
+    private static final String COMPLETE_HISTORY = "complete";
+    private static final int SHORT_LENGTH = 7;
+
+    private final String tag;
+    private final int distance;
+    private final String describe;
+
+    GitDescription(String tag, int distance, String describe) {
+        this.tag = tag;
+        this.distance = distance;
+        this.describe = describe;
+    }
+
+    /**
+     * @return the nearest tag reachable from the commit or null if there is none.
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return the commits since the nearest tag, or since the root commit when there is no tag.
+     */
+    public int getDistance() {
+        return distance;
+    }
+
+    public String getDescribe() {
+        return describe;
+    }
+
+    public static String abbreviate(String objectId) {
+        return objectId.length() > SHORT_LENGTH ? objectId.substring(0, SHORT_LENGTH) : objectId;
+    }
+
+    /**
+     * Describes the commit, walking the history of the repository. Shallow clones are not walked since their history
+     * is incomplete; they are described by the abbreviated commit with a distance of 0.
+     */
+    public static GitDescription describe(Repository repository, File commonDir, String objectId) throws IOException {
+        String shortId = abbreviate(objectId);
+        if (isShallow(commonDir)) {
+            return new GitDescription(null, 0, shortId);
+        }
+
+        Map<ObjectId, String> tags = new HashMap<ObjectId, String>();
+        for (Ref ref : repository.getTags().values()) {
+            Ref peeled = repository.peel(ref);
+            ObjectId target = peeled.getPeeledObjectId() != null ? peeled.getPeeledObjectId() : peeled.getObjectId();
+            if (target != null && !tags.containsKey(target)) {
+                tags.put(target, Repository.shortenRefName(ref.getName()));
+            }
+        }
+
+        RevWalk walk = new RevWalk(repository);
+        try {
+            RevCommit head = walk.parseCommit(ObjectId.fromString(objectId));
+            if (tags.isEmpty()) {
+                return new GitDescription(null, countCommits(walk, head, repository.getDirectory()), shortId);
+            }
+            walk.sort(RevSort.COMMIT_TIME_DESC);
+            walk.markStart(head);
+            RevCommit tagged = null;
+            int count = 0;
+            for (RevCommit commit : walk) {
+                if (tags.containsKey(commit)) {
+                    tagged = commit;
+                    break;
+                }
+                count++;
+            }
+            if (tagged == null) {
+                return new GitDescription(null, count, shortId);
+            }
+
+            walk.reset();
+            walk.markStart(head);
+            walk.markUninteresting(tagged);
+            int distance = 0;
+            for (RevCommit ignored : walk) {
+                distance++;
+            }
+            String tag = tags.get(tagged);
+            return new GitDescription(tag, distance, distance == 0 ? tag : tag + "-" + distance + "-g" + shortId);
+        } catch (MissingObjectException e) {
+            return new GitDescription(null, 0, shortId); // grafted or incomplete history
+        } finally {
+            walk.release();
+        }
+    }
+
+    /**
+     * @return true if the repository is a shallow clone, whose history stops at the commits listed in its
+     * <code>shallow</code> file.
+     */
+    static boolean isShallow(File commonDir) {
+        return new File(commonDir, "shallow").exists();
+    }
+
+    /**
+     * @return the number of commits reachable from head, counted on from the cached untagged commit if it is an
+     * ancestor of head.
+     */
+    private static int countCommits(RevWalk walk, RevCommit head, File gitDir) throws IOException {
+        Properties cache = loadCache(gitDir);
+        RevCommit previous = null;
+        int previousCount = 0;
+        if (cache != null && COMPLETE_HISTORY.equals(cache.getProperty("history")) && cache.getProperty("tag") == null
+                && cache.getProperty("head") != null) {
+            try {
+                previousCount = Integer.parseInt(cache.getProperty("distance"));
+                previous = walk.parseCommit(ObjectId.fromString(cache.getProperty("head")));
+            } catch (MissingObjectException e) {
+                previous = null; // pruned since
+            } catch (RuntimeException e) {
+                previous = null; // corrupt cache
+            }
+        }
+        if (previous != null) {
+            if (previous.equals(head)) {
+                return previousCount;
+            }
+            walk.markStart(head);
+            walk.markUninteresting(previous);
+            int count = 0;
+            boolean ancestor = false;
+            for (RevCommit commit : walk) {
+                count++;
+                // every path from head to an ancestor ends in a commit that is not one of its ancestors
+                for (RevCommit parent : commit.getParents()) {
+                    ancestor |= parent.equals(previous);
+                }
+            }
+            if (ancestor) {
+                return previousCount + count;
+            }
+            walk.reset();
+        }
+        walk.markStart(head);
+        int count = 0;
+        for (RevCommit ignored : walk) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return the cached description of the commit or null if the cache is missing, stale or was not computed from
+     * the complete history.
+     */
+    static GitDescription readCache(File gitDir, String objectId, String tagsFingerprint, String provider) {
+        Properties properties = loadCache(gitDir);
+        if (properties == null || !COMPLETE_HISTORY.equals(properties.getProperty("history"))
+                || !provider.equals(properties.getProperty("provider"))
+                || !objectId.equals(properties.getProperty("head"))
+                || !tagsFingerprint.equals(properties.getProperty("tags"))) {
+            return null;
+        }
+        try {
+            return new GitDescription(properties.getProperty("tag"), Integer.parseInt(properties.getProperty(
+                    "distance")), properties.getProperty("describe"));
+        } catch (RuntimeException e) {
+            return null; // corrupt cache, recompute
+        }
+    }
+
+    private static Properties loadCache(File gitDir) {
+        File cacheFile = new File(gitDir, CACHE_FILE);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(cacheFile);
+            Properties properties = new Properties();
+            properties.load(in);
+            return properties;
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null; // corrupt cache, recompute
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Caches the description of a commit computed from the complete history, never call it for a shallow clone.
+     */
+    static void writeCache(File gitDir, String objectId, String tagsFingerprint, String provider,
+            GitDescription description) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("history", COMPLETE_HISTORY);
+        properties.setProperty("provider", provider);
+        properties.setProperty("head", objectId);
+        properties.setProperty("tags", tagsFingerprint);
+        if (description.getTag() != null) {
+            properties.setProperty("tag", description.getTag());
+        }
+        properties.setProperty("distance", String.valueOf(description.getDistance()));
+        properties.setProperty("describe", description.getDescribe());
+
+        File cacheFile = new File(gitDir, CACHE_FILE);
+        File tmpFile = new File(gitDir, CACHE_FILE + ".tmp");
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            properties.store(out, "maven-scm-version-plugin describe cache");
+        } finally {
+            IOUtil.close(out);
+        }
+        if (!tmpFile.renameTo(cacheFile)) {
+            cacheFile.delete();
+            tmpFile.renameTo(cacheFile);
+        }
+    }
+
+    /**
+     * @return a fingerprint of the tag refs, changing whenever tags are added, removed, moved or packed, including
+     * tags in nested directories such as <code>refs/tags/release/1.0</code>.
+     */
+    static String tagsFingerprint(File commonDir) {
+        File packedRefs = new File(commonDir, "packed-refs");
+        List<File> looseRefs = new ArrayList<File>();
+        collectTagRefs(new File(commonDir, "refs/tags"), looseRefs, true);
+        long hash = 17;
+        for (File file : looseRefs) {
+            hash = 31 * hash + file.getName().hashCode();
+            hash = 31 * hash + file.lastModified();
+            hash = 31 * hash + file.length();
+        }
+        return packedRefs.lastModified() + "." + packedRefs.length() + "." + looseRefs.size() + "."
+                + Long.toHexString(hash);
+    }
+
+    /**
+     * @return <code>refs/tags</code> and the directories below it, whose modification times change whenever a loose
+     * tag is created, updated or deleted since git replaces ref files by renaming.
+     */
+    static List<File> tagDirectories(File commonDir) {
+        List<File> directories = new ArrayList<File>();
+        collectTagRefs(new File(commonDir, "refs/tags"), directories, false);
+        return directories;
+    }
+
+    private static void collectTagRefs(File directory, List<File> collected, boolean includeRefs) {
+        collected.add(directory);
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            File file = new File(directory, name);
+            if (file.isDirectory()) {
+                collectTagRefs(file, collected, includeRefs);
+            } else if (includeRefs && !name.endsWith(".lock")) {
+                collected.add(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.inigma.maven;
+
+/**
+ * What HEAD of a git directory points at.
+ */
+public class GitHead {
+    private static final String[] SHORTEN_PREFIXES = {"refs/heads/", "refs/tags/", "refs/remotes/"};
+
+    private final String refName;
+    private final String objectId;
+
+    /**
+     * @param refName the full name of the ref HEAD points to or null if HEAD is detached.
+     * @param objectId the commit HEAD resolves to or null if the branch has no commits yet.
+     */
+    public GitHead(String refName, String objectId) {
+        this.refName = refName;
+        this.objectId = objectId;
+    }
+
+    public String getRefName() {
+        return refName;
+    }
+
+    public String getObjectId() {
+        return objectId;
+    }
+
+    public boolean isDetached() {
+        return refName == null;
+    }
+
+    /**
+     * @return the short name of the checked out branch or null if HEAD is detached.
+     */
+    public String getBranch() {
+        if (refName == null) {
+            return null;
+        }
+        for (String prefix : SHORTEN_PREFIXES) {
+            if (refName.startsWith(prefix)) {
+                return refName.substring(prefix.length());
+            }
+        }
+        return refName;
+    }
+
+    @Override
+    public String toString() {
+        return "GitHead[" + (refName == null ? "detached" : refName) + " -> " + objectId + "]";
+    }
+}
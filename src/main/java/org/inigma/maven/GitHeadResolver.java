@@ -0,0 +1,186 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Reads HEAD straight from the git directory without initializing JGit. Refs are looked up as loose files first and
+ * then by a binary search over the <code>packed-refs</code> file, so repositories with a large number of tags only pay
+ * for a single read and a handful of comparisons. The file is read onto the heap rather than memory mapped, a mapping
+ * keeps the file locked on Windows until the buffer is garbage collected.
+ * <p/>
+ * Layouts this reader does not understand (symlinked HEAD, nested symbolic refs, reftable) make
+ * {@link #resolve(File, File)} return null, in which case the caller is expected to ask JGit.
+ */
+public class GitHeadResolver {
+    private static final String REF_PREFIX = "ref:";
+    private static final String PACKED_REFS = "packed-refs";
+    private static final String SORTED_TRAIT = " sorted";
+    private static final int OBJECT_ID_LENGTH = 40;
+
+    private GitHeadResolver() {
+    }
+
+    /**
+     * @param gitDir the git directory holding HEAD.
+     * @param commonDir the directory holding shared refs, the same as gitDir unless it is a worktree.
+     * @return the resolved HEAD or null if the layout requires a full git implementation.
+     */
+    public static GitHead resolve(File gitDir, File commonDir) throws IOException {
+        if (new File(commonDir, "reftable").exists()) {
+            return null;
+        }
+        File headFile = new File(gitDir, "HEAD");
+        if (!headFile.isFile() || !headFile.getCanonicalFile().equals(new File(gitDir.getCanonicalFile(), "HEAD"))) {
+            return null; // missing or symlinked HEAD from very old repositories
+        }
+
+        String head = GitContext.readFirstLine(headFile);
+        if (head == null) {
+            return null;
+        }
+        if (!head.startsWith(REF_PREFIX)) {
+            return isObjectId(head) ? new GitHead(null, head) : null;
+        }
+
+        String refName = head.substring(REF_PREFIX.length()).trim();
+        String objectId = readLooseRef(gitDir, refName);
+        if (objectId == null && !commonDir.equals(gitDir)) {
+            objectId = readLooseRef(commonDir, refName);
+        }
+        if (objectId == null) {
+            objectId = findPackedRef(new File(commonDir, PACKED_REFS), refName);
+        } else if (objectId.startsWith(REF_PREFIX) || !isObjectId(objectId)) {
+            return null;
+        }
+        return new GitHead(refName, objectId);
+    }
+
+    private static String readLooseRef(File dir, String refName) throws IOException {
+        File refFile = new File(dir, refName);
+        if (!refFile.isFile()) {
+            return null;
+        }
+        String value = GitContext.readFirstLine(refFile);
+        return value == null || value.length() == 0 ? null : value;
+    }
+
+    /**
+     * @return the object id recorded for the ref in the packed-refs file or null if it is not listed.
+     */
+    static String findPackedRef(File packedRefs, String refName) throws IOException {
+        if (!packedRefs.isFile()) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(packedRefs, "r");
+        byte[] buffer;
+        try {
+            long size = file.length();
+            if (size == 0 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = new byte[(int) size];
+            file.readFully(buffer);
+        } finally {
+            file.close();
+        }
+
+        byte[] target = refName.getBytes("UTF-8");
+        int limit = buffer.length;
+        int start = 0;
+        boolean sorted = false;
+        if (buffer[0] == '#') {
+            int headerEnd = lineEnd(buffer, 0, limit);
+            sorted = asString(buffer, 0, headerEnd).contains(SORTED_TRAIT);
+            start = nextRefLine(buffer, headerEnd + 1, limit);
+        }
+        return sorted ? binarySearch(buffer, start, limit, target) : linearSearch(buffer, start, limit, target);
+    }
+
+    private static String binarySearch(byte[] buffer, int low, int high, byte[] target) {
+        // low always sits on the start of a ref line, high on the start of a line or the end of the file
+        while (low < high) {
+            int line = lineStart(buffer, low, (low + high) >>> 1);
+            if (buffer[line] == '^') {
+                line = lineStart(buffer, low, line - 1); // peeled line, use the ref it belongs to
+            }
+            int end = lineEnd(buffer, line, high);
+            int cmp = compare(buffer, line + OBJECT_ID_LENGTH + 1, end, target);
+            if (cmp == 0) {
+                return asString(buffer, line, line + OBJECT_ID_LENGTH);
+            } else if (cmp < 0) {
+                low = nextRefLine(buffer, end + 1, high);
+            } else {
+                high = line;
+            }
+        }
+        return null;
+    }
+
+    private static String linearSearch(byte[] buffer, int start, int limit, byte[] target) {
+        for (int line = start; line < limit; line = nextRefLine(buffer, lineEnd(buffer, line, limit) + 1, limit)) {
+            int end = lineEnd(buffer, line, limit);
+            if (compare(buffer, line + OBJECT_ID_LENGTH + 1, end, target) == 0) {
+                return asString(buffer, line, line + OBJECT_ID_LENGTH);
+            }
+        }
+        return null;
+    }
+
+    private static int lineStart(byte[] buffer, int floor, int position) {
+        while (position > floor && buffer[position - 1] != '\n') {
+            position--;
+        }
+        return position;
+    }
+
+    private static int lineEnd(byte[] buffer, int position, int limit) {
+        while (position < limit && buffer[position] != '\n') {
+            position++;
+        }
+        return position;
+    }
+
+    private static int nextRefLine(byte[] buffer, int position, int limit) {
+        while (position < limit && (buffer[position] == '^' || buffer[position] == '#')) {
+            position = lineEnd(buffer, position, limit) + 1;
+        }
+        return Math.min(position, limit);
+    }
+
+    private static int compare(byte[] buffer, int from, int to, byte[] target) {
+        if (to > from && buffer[to - 1] == '\r') {
+            to--;
+        }
+        int length = Math.max(0, to - from);
+        int common = Math.min(length, target.length);
+        for (int i = 0; i < common; i++) {
+            int diff = (buffer[from + i] & 0xff) - (target[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return length - target.length;
+    }
+
+    private static String asString(byte[] buffer, int from, int to) {
+        StringBuilder sb = new StringBuilder(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            sb.append((char) (buffer[i] & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static boolean isObjectId(String value) {
+        if (value.length() != OBJECT_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,207 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+/**
+ * Opt-in warm-up of the git lookups, started on a daemon thread when the session starts so that it overlaps with
+ * Maven reading the projects. HEAD is resolved and whatever the version pattern of the top level POM needs, the
+ * history walk and the commit time, is computed up front; the first goal or extension versioning the reactor joins
+ * the result instead of doing the work on the critical path.
+ * <p/>
+ * Maven only announces the session start to core extensions, so the warm-up is active when the plugin is installed
+ * as one and <code>scmVersion.prefetch</code> is true. The warm-up runs in the core realm and the goals in their own,
+ * so the result is handed over as plain strings.
+ */
+public class GitPrefetch implements Callable<Map<String, String>> {
+    public static final String PREFETCH_PROPERTY = "scmVersion.prefetch";
+    public static final long DEFAULT_TIMEOUT = 30000;
+    private static final String FUTURE_KEY = GitPrefetch.class.getName() + ".future";
+    private static final String GIT_DIR = "gitDir";
+    private static final String REF = "ref";
+    private static final String HEAD = "head";
+    private static final String COMMIT_TIME = "commitTime";
+    private static final String TAG = "tag";
+    private static final String DISTANCE = "distance";
+    private static final String DESCRIBE = "describe";
+
+    private final File directory;
+    private final File pom;
+    private final String versionPattern;
+    private final String timestampSource;
+    private final String provider;
+
+    private GitPrefetch(File directory, File pom, String versionPattern, String timestampSource, String provider) {
+        this.directory = directory;
+        this.pom = pom;
+        this.versionPattern = versionPattern;
+        this.timestampSource = timestampSource;
+        this.provider = provider;
+    }
+
+    /**
+     * Starts the warm-up for the execution root of the session if prefetching is enabled.
+     */
+    public static void start(MavenSession session, Log log) {
+        if (!Boolean.parseBoolean(session.getUserProperties().getProperty(PREFETCH_PROPERTY))) {
+            return;
+        }
+        File directory = new File(session.getExecutionRootDirectory());
+        File pom = session.getRequest().getPom();
+        FutureTask<Map<String, String>> future = new FutureTask<Map<String, String>>(new GitPrefetch(directory,
+                pom == null ? new File(directory, "pom.xml") : pom,
+                session.getUserProperties().getProperty("versionPattern"),
+                session.getUserProperties().getProperty("scmVersion.timestampSource"),
+                session.getUserProperties().getProperty("scmVersion.provider")));
+        if (session.getRepositorySession().getData().set(FUTURE_KEY, null, future)) {
+            Thread thread = new Thread(future, "scm-version-prefetch");
+            thread.setDaemon(true);
+            thread.start();
+            log.debug("Prefetching git information of " + directory);
+        }
+    }
+
+    /**
+     * Waits for the warm-up of the session, if one was started, and hands its results to the git context. Nothing is
+     * handed over when it failed or did not finish in time, the git context then does the work itself.
+     */
+    public static void join(MavenSession session, GitContext gitContext, long timeout, Log log) {
+        Object future = session.getRepositorySession().getData().get(FUTURE_KEY);
+        if (!(future instanceof Future)) {
+            return;
+        }
+        Map<?, ?> result;
+        try {
+            result = (Map<?, ?>) ((Future<?>) future).get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.info("Git prefetch did not finish within " + timeout + "ms, resolving git information directly");
+            return;
+        } catch (ExecutionException e) {
+            log.debug("Git prefetch failed, resolving git information directly", e.getCause());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (result.get(GIT_DIR) == null || result.get(HEAD) == null) {
+            return;
+        }
+
+        File gitDir = new File((String) result.get(GIT_DIR));
+        GitHead head = new GitHead((String) result.get(REF), (String) result.get(HEAD));
+        Date commitTime = result.get(COMMIT_TIME) == null ? null
+                : new Date(Long.parseLong((String) result.get(COMMIT_TIME)));
+        GitDescription description = result.get(DESCRIBE) == null ? null : new GitDescription(
+                (String) result.get(TAG), Integer.parseInt((String) result.get(DISTANCE)),
+                (String) result.get(DESCRIBE));
+        gitContext.prefetched(gitDir, head, commitTime, description);
+        log.debug("Using prefetched " + head + " of " + gitDir);
+    }
+
+    public Map<String, String> call() throws IOException {
+        Map<String, String> result = new HashMap<String, String>();
+        GitContext gitContext = new GitContext();
+        try {
+            Xpp3Dom configuration = getConfiguration();
+            String providerName = getSetting(configuration, "scmProvider", provider, JGitVersionProvider.NAME);
+            if (GitContext.isProvider(providerName)) {
+                gitContext.setProvider(providerName);
+            }
+            File gitDir = gitContext.findGitDir(directory);
+            if (gitDir == null) {
+                return result;
+            }
+            GitHead head = gitContext.getHead(gitDir);
+            if (head.getObjectId() == null) {
+                return result;
+            }
+            result.put(GIT_DIR, gitDir.getPath());
+            if (head.getRefName() != null) {
+                result.put(REF, head.getRefName());
+            }
+            result.put(HEAD, head.getObjectId());
+
+            String pattern = getSetting(configuration, "versionPattern", versionPattern,
+                    ReactorVersionResolver.DEFAULT_PATTERN);
+            // an empty pattern fails the build once the projects are read, warm up for the default meanwhile
+            VersionTemplate template = VersionTemplate.compile(VersionTemplate.isPattern(pattern) ? pattern
+                    : ReactorVersionResolver.DEFAULT_PATTERN);
+            if (template.references(VersionTemplate.DISTANCE) || template.references(VersionTemplate.DESCRIBE)) {
+                GitDescription description = gitContext.getDescription(gitDir);
+                if (description.getTag() != null) {
+                    result.put(TAG, description.getTag());
+                }
+                result.put(DISTANCE, String.valueOf(description.getDistance()));
+                result.put(DESCRIBE, description.getDescribe());
+            }
+            if (template.references(VersionTemplate.DATE) && ReactorVersionResolver.TIMESTAMP_COMMIT.equals(
+                    getSetting(configuration, "timestampSource", timestampSource, null))) {
+                result.put(COMMIT_TIME, String.valueOf(gitContext.getCommitTime(gitDir).getTime()));
+            }
+            return result;
+        } finally {
+            gitContext.close();
+        }
+    }
+
+    private String getSetting(Xpp3Dom configuration, String name, String override, String defaultValue) {
+        if (override != null) {
+            return override;
+        }
+        Xpp3Dom child = configuration == null ? null : configuration.getChild(name);
+        return child == null || child.getValue() == null ? defaultValue : child.getValue().trim();
+    }
+
+    /**
+     * @return the plugin configuration of the top level POM as written, or null if it has none.
+     */
+    private Xpp3Dom getConfiguration() {
+        if (!pom.isFile()) {
+            return null;
+        }
+        Model model;
+        Reader reader = null;
+        try {
+            reader = new FileReader(pom);
+            model = new MavenXpp3Reader().read(reader, false);
+        } catch (IOException e) {
+            return null;
+        } catch (XmlPullParserException e) {
+            return null;
+        } finally {
+            IOUtil.close(reader);
+        }
+        Build build = model.getBuild();
+        if (build == null) {
+            return null;
+        }
+        for (Plugin plugin : build.getPlugins()) {
+            if (ScmVersionLifecycleParticipant.PLUGIN_KEY.equals(plugin.getKey())
+                    && plugin.getConfiguration() instanceof Xpp3Dom) {
+                return (Xpp3Dom) plugin.getConfiguration();
+            }
+        }
+        return null;
+    }
+}
@@ -1,27 +1,24 @@
 package org.inigma.maven;
 
 import java.io.File;
-import java.io.IOException;
 import java.lang.reflect.Field;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
-import org.apache.maven.execution.MavenSession;
-import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.ReflectionUtils;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.sonatype.aether.repository.WorkspaceReader;
 
 /**
  * @author <a href="mailto:sejal@inigma.org">Sejal Patel</a>
+ * Under parallel builds (-T) the versions must be applied by the build extension, the goal then only checks they
+ * are and fails the build otherwise.
+ *
  * @goal gitVersion
  * @phase validate
+ * @threadSafe
  */
 public class GitVersionBranchMojo extends AbstractVersionPomMojo {
     /**
@@ -42,117 +39,162 @@ public class GitVersionBranchMojo extends AbstractVersionPomMojo {
      * Define the desired pattern to use for snapshots of branched code. Valid substitution variables are
      * <ul>
      * <li>scmVersion.number - The original version number without the -SNAPSHOT component.</li>
-     * <li>scmVersion.date - The current date in yyyy.MM.dd.hh.mm.ss format.</li>
+     * <li>scmVersion.date - The build timestamp in UTC in yyyy.MM.dd.HH.mm.ss format, see timestampSource.</li>
      * <li>scmVersion.branch - The name of the current branch.</li>
+     * <li>scmVersion.commit - The full id of the HEAD commit.</li>
+     * <li>scmVersion.shortCommit - The first 7 characters of the HEAD commit id.</li>
+     * <li>scmVersion.distance - The number of commits since the nearest tag.</li>
+     * <li>scmVersion.describe - The git describe --tags --always style description of HEAD.</li>
      * </ul>
+     * The distance and describe variables walk the history and are only computed when referenced; their results are
+     * cached in the git directory per HEAD commit.
      *
      * @parameter expression="${versionPattern}" default-value="${scmVersion.branch}-SNAPSHOT"
      * @readonly
      */
     private String versionPattern;
     /**
-     * @parameter expression="${session}"
-     * @required
-     * @readonly
+     * When HEAD is detached, as is common on CI servers checking out a specific commit, take the branch name from the
+     * first non-empty environment variable listed in ciBranchVariables instead of falling back to master.
+     *
+     * @parameter expression="${scmVersion.ciMode}" default-value="false"
+     */
+    private boolean ciMode;
+    /**
+     * Comma separated environment variables consulted in order for the branch name when ciMode is enabled.
+     *
+     * @parameter expression="${scmVersion.ciBranchVariables}"
+     * default-value="GIT_BRANCH,BRANCH_NAME,CI_COMMIT_REF_NAME,GITHUB_HEAD_REF,GITHUB_REF_NAME,TRAVIS_BRANCH,BITBUCKET_BRANCH"
+     */
+    private String ciBranchVariables;
+    /**
+     * Version manifest written by the resolve goal. When it was written for the current HEAD and versionPattern, the
+     * versions it records are applied without resolving them again. Keep it outside of target when later builds
+     * start with clean.
+     *
+     * @parameter expression="${scmVersion.manifest}"
+     * default-value="${session.executionRootDirectory}/target/scm-version.manifest"
+     */
+    private File manifest;
+    /**
+     * Where the one timestamp shared by every module of the reactor comes from: <code>session</code> for the start of
+     * the build or <code>commit</code> for the committer time of HEAD, which makes rebuilds of a commit reproducible.
+     * The SOURCE_DATE_EPOCH environment variable, in seconds since the epoch, takes precedence when set.
+     *
+     * @parameter expression="${scmVersion.timestampSource}" default-value="session"
+     */
+    private String timestampSource;
+    /**
+     * Milliseconds to wait for the git prefetch started by the core extension when <code>scmVersion.prefetch</code> is
+     * true, before resolving the git information directly.
+     *
+     * @parameter expression="${scmVersion.prefetchTimeout}" default-value="30000"
+     */
+    private long prefetchTimeout;
+    /**
+     * Backend answering what cannot be read from the git directory directly: <code>jgit</code> in process,
+     * <code>git</code> for the git binary on the path, or <code>auto</code> to use the git binary for repositories
+     * with large packs or a reftable and JGit otherwise.
+     *
+     * @parameter expression="${scmVersion.provider}" default-value="jgit"
      */
-    private MavenSession mavenSession;
+    private String scmProvider;
 
     public void execute() throws MojoExecutionException, MojoFailureException {
-        updateProjectInformation(project);
-
-        for (MavenProject subproj : reactorProjects) {
-            updateProjectInformation(subproj);
-        }
-    }
-
-    private void hackReactorReaderField(String field, String originalVersion, MavenProject prj) {
-        if (originalVersion.equals(prj.getVersion())) {
+        if (ReactorVersions.isAppliedByExtension(session)) {
+            getLog().debug("Reactor versions applied by the build extension, skipping " + project);
             return;
         }
-        WorkspaceReader reader = mavenSession.getRepositorySession().getWorkspaceReader();
-        try {
-            Field f = ReflectionUtils.getFieldByNameIncludingSuperclasses(field, Class.forName("org.apache.maven.ReactorReader"));
-            f.setAccessible(true);
-            Map<String, MavenProject> newprojects = new HashMap<String, MavenProject>();
-            Map<String, MavenProject> projects = (Map<String, MavenProject>) f.get(reader);
-            //getLog().debug("What is in " + field + ": " + projects);
-            for (Entry<String, MavenProject> entry : projects.entrySet()) {
-                String key = entry.getKey();
-                MavenProject mavenProject = entry.getValue();
-                //getLog().info("Does group match in " + key + ", " + prj.getGroupId() + ":" + prj.getArtifactId());
-                if (key.startsWith(prj.getGroupId() + ":" + prj.getArtifactId())) {
-                    //getLog().debug("\tSource: " + mavenProject);
-                    File hackPom = getPomFile(prj.getFile(), prj.getVersion());
-                    mavenProject.setFile(hackPom);
-                    //getLog().debug("\tNew: " + mavenProject);
-                    //getLog().debug("\tSwapping out version " + originalVersion + " with " + prj.getVersion());
-                    newprojects.put(key.replaceAll(originalVersion, prj.getVersion()), mavenProject);
-                } else {
-                    newprojects.put(key, mavenProject);
-                }
-            }
-            projects.clear();
-            projects.putAll(newprojects);
-            //getLog().debug("This is now: " + projects);
-        } catch (Exception e) {
-            getLog().error("Doh! Something broke!", e);
+        if (session.isParallel()) {
+            // the parallel builder keys its schedule on the coordinates of the projects before any mojo runs, so
+            // versions changed from here are lost on it and the modules depending on them are skipped
+            throw new MojoFailureException("Parallel builds (-T) are only versioned by the build extension, declare "
+                    + "the plugin with <extensions>true</extensions> or build without -T");
         }
-    }
-
-    private void updateProjectInformation(MavenProject prj) {
-        boolean abortVersioning = false;
-        getLog().info("Executing GitVersionBranchMojo  with pattern " + versionPattern + " on " + prj);
-        VersionInformation version = new VersionInformation(versionPattern);
-        String versionString = prj.getVersion();
-        version.setSnapshot(versionString.endsWith("-SNAPSHOT"));
-        if (version.isSnapshot()) {
-            version.setVersion(versionString.substring(0, versionString.indexOf("-SNAPSHOT")));
-        } else {
-            version.setVersion(versionString);
+        if (!GitContext.isProvider(scmProvider)) {
+            throw new MojoFailureException("Unknown scmProvider " + scmProvider + ", expected jgit, git or auto");
+        }
+        if (!VersionTemplate.isPattern(versionPattern)) {
+            throw new MojoFailureException("versionPattern must not be empty, leave it out to use "
+                    + ReactorVersionResolver.DEFAULT_PATTERN);
+        }
+        ReactorVersions versions = ReactorVersions.get(session);
+        if (versions.isApplied()) {
+            getLog().debug("Reactor versions already resolved for this build, skipping " + project);
+            if (isWriteManifest()) {
+                GitContext gitContext = GitContext.get(session);
+                gitContext.setProvider(scmProvider);
+                newResolver().writeManifest(reactorProjects, versions, gitContext);
+                gitContext.close();
+            }
+            return;
         }
 
-        if (version.isSnapshot()) {
-            FileRepositoryBuilder repositoryBuilder = new FileRepositoryBuilder().findGitDir(prj.getBasedir());
-            if (repositoryBuilder == null) {
-                getLog().warn("Git Repository could not be found. Not executing versioning ...");
-                abortVersioning = true;
+        synchronized (versions) {
+            if (versions.isApplied()) {
+                getLog().debug("Reactor versions resolved by another module, skipping " + project);
+                return;
             }
-            String branch = "master";
+            GitContext gitContext = GitContext.get(session);
+            gitContext.setProvider(scmProvider);
+            GitPrefetch.join(session, gitContext, prefetchTimeout, getLog());
+            ReactorVersionResolver resolver = newResolver();
+            PluginMetrics metrics = getMetrics();
+            List<MavenProject> altered;
             try {
-                Repository repository = repositoryBuilder.build();
-                String name = repository.getBranch();
-                if (repository.getRef(name) != null) {
-                    branch = name;
-                }
-            } catch (IllegalArgumentException e) {
-                getLog().warn("Git Repository could not be found. Not executing versioning");
-                abortVersioning = true;
-            } catch (IOException e) {
-                getLog().warn("Unable to understand the git repository. Not executing versioning ...", e);
-                abortVersioning = true;
+                altered = resolver.resolve(reactorProjects, versions, gitContext);
+            } finally {
+                gitContext.close();
+                getLog().debug("Git lookups: " + gitContext);
             }
-
-            version.setBranchName(branch);
+            hackReactorReaderField("projectsByGAV", altered, versions, metrics);
+            versions.setApplied(true);
         }
+    }
 
-        String finalVersion = version.getFinalVersion();
-        if (abortVersioning || prj.getVersion().equals(finalVersion)) {
-            getLog().info("No version alterations applied!");
+    private ReactorVersionResolver newResolver() {
+        ReactorVersionResolver resolver = new ReactorVersionResolver(getLog(), versionPattern);
+        resolver.setCiMode(ciMode);
+        resolver.setCiBranchVariables(ciBranchVariables);
+        resolver.setMetrics(getMetrics());
+        resolver.setManifest(manifest);
+        resolver.setWriteManifest(isWriteManifest());
+        resolver.setTimestampSource(timestampSource);
+        resolver.setSessionTimestamp(session.getRequest().getStartTime());
+        return resolver;
+    }
+
+    /**
+     * @return true to resolve the versions from git and record them in the manifest.
+     */
+    protected boolean isWriteManifest() {
+        return false;
+    }
+
+    /**
+     * Re-keys the altered projects in the reactor's GAV map and points them at their rewritten POMs. Only the re-keying
+     * counts as the reactor map stage, rewriting the POMs is recorded as a stage of its own.
+     */
+    private void hackReactorReaderField(String field, List<MavenProject> altered, ReactorVersions versions,
+            PluginMetrics metrics) {
+        if (altered.isEmpty()) {
             return;
         }
 
-        getLog().info("Altering versions to " + finalVersion);
-        String originalVersion = prj.getVersion();
-        prj.getProperties().put("scmVersion", finalVersion); // branch-SNAPSHOT
-        prj.setVersion(finalVersion);
-        prj.getArtifact().setVersion(finalVersion);
-        prj.getArtifact().setBaseVersion(finalVersion);
-
-        for (Dependency dependency : prj.getDependencies()) {
-            if (prj.getGroupId().equals(dependency.getGroupId())) {
-                dependency.setVersion(finalVersion);
+        WorkspaceReader reader = session.getRepositorySession().getWorkspaceReader();
+        try {
+            Field f = ReflectionUtils.getFieldByNameIncludingSuperclasses(field, Class.forName("org.apache.maven.ReactorReader"));
+            f.setAccessible(true);
+            Map<String, MavenProject> projects = (Map<String, MavenProject>) f.get(reader);
+            long start = metrics.start();
+            List<MavenProject> rekeyed = versions.rekey(projects);
+            metrics.record(PluginMetrics.REACTOR_MAP, start);
+            for (MavenProject prj : rekeyed) {
+                File buildDir = new File(prj.getBuild().getDirectory());
+                RewrittenPoms.setProjectFile(session, prj, getPomFile(prj.getFile(), prj.getVersion(), buildDir));
             }
+        } catch (Exception e) {
+            getLog().error("Doh! Something broke!", e);
         }
-        hackReactorReaderField("projectsByGAV", originalVersion, prj);
     }
 }
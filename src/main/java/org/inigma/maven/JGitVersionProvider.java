@@ -0,0 +1,76 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+/**
+ * Answers in process with JGit. Cheap to start and the right choice for small and medium repositories; one
+ * {@link Repository} is kept open per git directory, submodules and worktrees included, until {@link #close()}.
+ */
+public class JGitVersionProvider implements ScmVersionProvider {
+    public static final String NAME = "jgit";
+
+    private final Map<File, Repository> repositories = new HashMap<File, Repository>();
+
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * @return the shared repository handle for the git directory, opening it on first use.
+     */
+    public synchronized Repository getRepository(File gitDir, File commonDir) throws IOException {
+        Repository repository = repositories.get(gitDir);
+        if (repository == null) {
+            FileRepositoryBuilder builder = new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true);
+            if (!commonDir.equals(gitDir)) {
+                builder.setObjectDirectory(new File(commonDir, "objects"));
+            }
+            repository = builder.build();
+            repositories.put(gitDir, repository);
+        }
+        return repository;
+    }
+
+    public GitHead getHead(File gitDir, File commonDir) throws IOException {
+        Ref ref = getRepository(gitDir, commonDir).getRef(Constants.HEAD);
+        String objectId = ref == null || ref.getObjectId() == null ? null : ref.getObjectId().name();
+        String refName = ref != null && ref.isSymbolic() ? ref.getTarget().getName() : null;
+        return new GitHead(refName, objectId);
+    }
+
+    public GitDescription describe(File gitDir, File commonDir, String objectId) throws IOException {
+        return GitDescription.describe(getRepository(gitDir, commonDir), commonDir, objectId);
+    }
+
+    public Date getCommitTime(File gitDir, File commonDir, String objectId) throws IOException {
+        RevWalk walk = new RevWalk(getRepository(gitDir, commonDir));
+        try {
+            return new Date(walk.parseCommit(ObjectId.fromString(objectId)).getCommitTime() * 1000L);
+        } finally {
+            walk.release();
+        }
+    }
+
+    public synchronized void close() {
+        for (Repository repository : repositories.values()) {
+            repository.close();
+        }
+        repositories.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return NAME + "[repositories=" + repositories.size() + "]";
+    }
+}
@@ -0,0 +1,217 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.sonatype.aether.SessionData;
+
+/**
+ * Build scoped timings of the plugin's stages. Every sample is kept so that the report can give count, min, average,
+ * 95th percentile and max latencies per stage, written as <code>scm-version-metrics.json</code> in the build directory
+ * of the top level project and summarized on one line when the session ends. The report also gives the peak heap
+ * usage of the JVM and the file descriptors it holds open at the end, so scale tests can spot leaks.
+ * <p/>
+ * Samples are held in plain JDK collections in the repository session data, so the build extension and the plugin
+ * goals, loaded in separate class realms, record into the same report.
+ */
+public class PluginMetrics {
+    public static final String GIT_DIR = "gitDirDiscovery";
+    public static final String BRANCH = "branchResolution";
+    public static final String RENDER = "patternRendering";
+    public static final String POM_REWRITE = "pomRewrite";
+    public static final String REACTOR_MAP = "reactorMapRewrite";
+    public static final String CHECKSUM = "checksum";
+    public static final String INSTALL = "install";
+    public static final String DEPLOY_ATTEMPT = "deployAttempt";
+
+    public static final String REPORT_FILE = "scm-version-metrics.json";
+
+    private static final String SESSION_KEY = PluginMetrics.class.getName();
+    private static final String LISTENER_KEY = PluginMetrics.class.getName() + ".listener";
+
+    private final Map<String, List<Long>> samples;
+
+    private PluginMetrics(Map<String, List<Long>> samples) {
+        this.samples = samples;
+    }
+
+    /**
+     * @return the metrics of the build, registering the end of session report on first use.
+     */
+    @SuppressWarnings("unchecked")
+    public static PluginMetrics get(final MavenSession session, final Log log) {
+        SessionData data = session.getRepositorySession().getData();
+        Map<String, List<Long>> samples = (Map<String, List<Long>>) data.get(SESSION_KEY);
+        if (samples == null) {
+            data.set(SESSION_KEY, null, new HashMap<String, List<Long>>());
+            samples = (Map<String, List<Long>>) data.get(SESSION_KEY);
+        }
+        final PluginMetrics metrics = new PluginMetrics(samples);
+        if (data.set(LISTENER_KEY, null, Boolean.TRUE)) {
+            SessionEndListener.add(session, new Runnable() {
+                public void run() {
+                    metrics.report(session, log);
+                }
+            });
+        }
+        return metrics;
+    }
+
+    /**
+     * @return metrics that discard everything recorded, for callers outside of a Maven session.
+     */
+    public static PluginMetrics none() {
+        return new PluginMetrics(null);
+    }
+
+    /**
+     * @return a start time to pass to {@link #record(String, long)}.
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time elapsed since start for the stage.
+     */
+    public void record(String stage, long start) {
+        if (samples == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        synchronized (samples) {
+            List<Long> stageSamples = samples.get(stage);
+            if (stageSamples == null) {
+                stageSamples = new ArrayList<Long>();
+                samples.put(stage, stageSamples);
+            }
+            stageSamples.add(elapsed);
+        }
+    }
+
+    private Map<String, long[]> snapshot() {
+        Map<String, long[]> stages = new TreeMap<String, long[]>();
+        synchronized (samples) {
+            for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+                long[] values = new long[entry.getValue().size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = entry.getValue().get(i);
+                }
+                Arrays.sort(values);
+                stages.put(entry.getKey(), values);
+            }
+        }
+        return stages;
+    }
+
+    String toJson() {
+        StringBuilder sb = new StringBuilder("{\n  \"stages\": {");
+        String separator = "\n";
+        for (Map.Entry<String, long[]> entry : snapshot().entrySet()) {
+            long[] values = entry.getValue();
+            sb.append(separator).append("    \"").append(entry.getKey()).append("\": {");
+            sb.append("\"count\": ").append(values.length);
+            sb.append(", \"totalMs\": ").append(millis(total(values)));
+            sb.append(", \"minMs\": ").append(millis(values[0]));
+            sb.append(", \"avgMs\": ").append(millis(total(values) / values.length));
+            sb.append(", \"p95Ms\": ").append(millis(percentile(values, 95)));
+            sb.append(", \"maxMs\": ").append(millis(values[values.length - 1]));
+            sb.append('}');
+            separator = ",\n";
+        }
+        sb.append("\n  },\n  \"jvm\": {\"peakHeapMb\": ").append(getPeakHeap() / (1024 * 1024));
+        sb.append(", \"openFileDescriptors\": ").append(getOpenFileDescriptors());
+        return sb.append("}\n}\n").toString();
+    }
+
+    String toSummary() {
+        StringBuilder sb = new StringBuilder("SCM version timings:");
+        long total = 0;
+        for (Map.Entry<String, long[]> entry : snapshot().entrySet()) {
+            long[] values = entry.getValue();
+            total += total(values);
+            sb.append(' ').append(entry.getKey()).append(' ').append(values.length).append("x avg ")
+                    .append(millis(total(values) / values.length)).append(" p95 ")
+                    .append(millis(percentile(values, 95))).append(" ms,");
+        }
+        return sb.append(" total ").append(millis(total)).append(" ms").toString();
+    }
+
+    /**
+     * @return the sum of the peak usage of every heap memory pool, in bytes.
+     */
+    static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @return the number of file descriptors open in this JVM, or -1 where the platform does not tell.
+     */
+    static long getOpenFileDescriptors() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        try {
+            Class<?> unix = Class.forName("com.sun.management.UnixOperatingSystemMXBean");
+            if (unix.isInstance(os)) {
+                return ((Number) unix.getMethod("getOpenFileDescriptorCount").invoke(os)).longValue();
+            }
+        } catch (Exception e) {
+            // not a HotSpot style JVM
+        }
+        return -1;
+    }
+
+    private static long total(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+
+    private void report(MavenSession session, Log log) {
+        if (snapshot().isEmpty()) {
+            return;
+        }
+        MavenProject topLevel = session.getTopLevelProject();
+        if (topLevel != null && topLevel.getBuild().getDirectory() != null) {
+            File reportFile = new File(topLevel.getBuild().getDirectory(), REPORT_FILE);
+            try {
+                reportFile.getParentFile().mkdirs();
+                FileUtils.fileWrite(reportFile.getAbsolutePath(), "UTF-8", toJson());
+            } catch (IOException e) {
+                log.warn("Unable to write " + reportFile, e);
+            }
+        }
+        log.info(toSummary());
+    }
+}
@@ -0,0 +1,463 @@
+package org.inigma.maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams a POM from input to output, rewriting only the text of the project and parent <code>&lt;version&gt;</code>
+ * elements when they are SNAPSHOT versions, and the versions of dependencies, plugins, extensions and parents that
+ * reference a reactor module at its original version. Everything else, comments and formatting included, is copied
+ * byte for byte. Only the element path of the current position and the element of an open reference, such as a
+ * dependency or a plugin, are held in memory, so arbitrarily large POMs are handled in little space.
+ * <p/>
+ * References are matched by their literal groupId, <code>${project.groupId}</code> standing for the project's own,
+ * and literal version. A version given by a property of the POM is rewritten where the property is defined, provided
+ * it feeds nothing but references to reactor modules, see {@link PropertyVersions}: the first rewrite finds such
+ * properties, {@link #getPropertyVersions()}, and rewriting the POM again with {@link #setPropertyVersions(Map)}
+ * replaces them. References whose property cannot be rewritten are listed by {@link #getStaleReferences()}.
+ * <p/>
+ * The rewriter works on bytes and therefore requires an ASCII compatible encoding such as UTF-8 or ISO-8859-1, see
+ * {@link #isSupported(byte[], int)}.
+ */
+public class PomVersionRewriter {
+    private static final String SNAPSHOT = "-SNAPSHOT";
+    private static final String PARENT = "parent";
+    private static final String PLUGIN = "plugin";
+    private static final String GROUP_ID = "groupId";
+    private static final String ARTIFACT_ID = "artifactId";
+    private static final String VERSION = "version";
+    private static final String DEFAULT_PLUGIN_GROUP_ID = "org.apache.maven.plugins";
+    private static final int MAX_TRACKED_DEPTH = 16;
+    private static final int MAX_TEXT_LENGTH = 1024;
+
+    private final String version;
+    private final ReactorVersions versions;
+    private final String[] path = new String[MAX_TRACKED_DEPTH + 1];
+    private int depth;
+    private InputStream in;
+    private OutputStream out;
+    private ByteArrayOutputStream text;
+    private String textElement;
+    private Reference reference;
+    private String projectGroupId;
+    private String parentGroupId;
+    private PropertyVersions properties;
+    private Map<String, String> propertyVersions = Collections.emptyMap();
+
+    public PomVersionRewriter(String version) {
+        this(version, null);
+    }
+
+    /**
+     * @param version the version to put in place of the SNAPSHOT project version.
+     * @param versions the versions of the reactor modules, or null to only rewrite the project and parent versions.
+     */
+    public PomVersionRewriter(String version, ReactorVersions versions) {
+        this.version = version;
+        this.versions = versions;
+    }
+
+    /**
+     * @return true if the leading bytes of a POM indicate an encoding this rewriter can process.
+     */
+    public static boolean isSupported(byte[] head, int length) {
+        if (length >= 2 && ((head[0] & 0xff) == 0xfe || (head[0] & 0xff) == 0xff)) {
+            return false; // UTF-16 byte order mark
+        }
+        return length < 2 || (head[0] != 0 && head[1] != 0);
+    }
+
+    /**
+     * Copies the POM from in to out with the versions replaced. The input must support {@link InputStream#mark(int)},
+     * such as a {@link java.io.BufferedInputStream}.
+     */
+    public void rewrite(InputStream in, OutputStream out) throws IOException {
+        this.in = in;
+        this.out = out;
+        this.depth = 0;
+        this.text = null;
+        this.reference = null;
+        this.projectGroupId = null;
+        this.parentGroupId = null;
+        if (versions != null) {
+            this.properties = new PropertyVersions(versions);
+            this.out = new ExpressionCounter(out, properties);
+        }
+        int c;
+        while ((c = in.read()) != -1) {
+            if (text != null) {
+                if (c != '<') {
+                    text.write(c);
+                    if (text.size() > MAX_TEXT_LENGTH) {
+                        text.writeTo(this.out);
+                        text = null;
+                    }
+                    continue;
+                }
+                endText();
+            }
+            this.out.write(c);
+            if (c == '<') {
+                markup();
+            }
+        }
+        if (text != null) {
+            text.writeTo(this.out);
+            text = null;
+        }
+        while (reference != null) { // truncated POM, copy what is left as is
+            this.out = reference.target;
+            reference.buffer.writeTo(this.out);
+            reference = reference.outer;
+        }
+    }
+
+    /**
+     * @return the properties the last rewrite found to feed only references to reactor modules, mapped to the final
+     * version of the modules.
+     */
+    public Map<String, String> getPropertyVersions() {
+        return properties == null ? Collections.<String, String>emptyMap() : properties.getReplacements();
+    }
+
+    /**
+     * @param propertyVersions the properties of the project to rewrite, mapped to their new value.
+     */
+    public void setPropertyVersions(Map<String, String> propertyVersions) {
+        this.propertyVersions = propertyVersions;
+    }
+
+    /**
+     * @return a message for every reference to a reactor module the last rewrite left at its original version because
+     * its version property could not be rewritten.
+     */
+    public List<String> getStaleReferences() {
+        return properties == null ? Collections.<String>emptyList()
+                : properties.getStaleReferences(propertyVersions);
+    }
+
+    private void markup() throws IOException {
+        in.mark(16);
+        int c = in.read();
+        if (c == '!') {
+            out.write(c);
+            in.mark(16);
+            if (lookingAt("--")) {
+                out.write('-');
+                out.write('-');
+                copyThrough("-->");
+                return;
+            }
+            in.reset();
+            in.mark(16);
+            if (lookingAt("[CDATA[")) {
+                out.write("[CDATA[".getBytes("US-ASCII"));
+                copyThrough("]]>");
+                return;
+            }
+            in.reset();
+            copyDeclaration();
+        } else if (c == '?') {
+            out.write(c);
+            copyThrough("?>");
+        } else if (c == '/') {
+            out.write(c);
+            copyTag();
+            if (reference != null && depth == reference.depth) {
+                closeReference();
+            }
+            depth--;
+        } else if (c != -1) {
+            in.reset();
+            startTag();
+        }
+    }
+
+    private void startTag() throws IOException {
+        StringBuilder name = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '>' && c != '/' && !Character.isWhitespace(c)) {
+            out.write(c);
+            name.append((char) c);
+        }
+        if (c == -1) {
+            return;
+        }
+        out.write(c);
+        if (c != '>' && (copyTag() || c == '/')) {
+            return; // self closing
+        }
+
+        depth++;
+        if (depth > MAX_TRACKED_DEPTH) {
+            return;
+        }
+        String element = name.toString();
+        path[depth] = element;
+        if (isReference(element)) {
+            reference = new Reference(element, depth, out, reference);
+            out = reference.buffer;
+        } else if (isCaptured(element)) {
+            text = new ByteArrayOutputStream();
+            textElement = element;
+        }
+    }
+
+    /**
+     * @return true for the parent and for the dependencies, plugins and extensions of the project or its profiles.
+     */
+    private boolean isReference(String element) {
+        if (depth < 2 || !"project".equals(path[1])) {
+            return false;
+        }
+        if (depth == 2) {
+            return PARENT.equals(element);
+        }
+        String container = path[depth - 1];
+        return "dependency".equals(element) && "dependencies".equals(container)
+                || PLUGIN.equals(element) && "plugins".equals(container)
+                || "extension".equals(element) && "extensions".equals(container);
+    }
+
+    private boolean isCaptured(String element) {
+        if (reference != null && depth == reference.depth + 1) {
+            return GROUP_ID.equals(element) || ARTIFACT_ID.equals(element) || VERSION.equals(element);
+        }
+        return depth == 2 && "project".equals(path[1]) && (GROUP_ID.equals(element) || VERSION.equals(element))
+                || isProperty();
+    }
+
+    /**
+     * @return true inside a property of the project or of one of its profiles.
+     */
+    private boolean isProperty() {
+        if (depth < 3 || !"project".equals(path[1]) || !"properties".equals(path[depth - 1])) {
+            return false;
+        }
+        return depth == 3 || depth == 5 && "profiles".equals(path[2]) && "profile".equals(path[3]);
+    }
+
+    private void endText() throws IOException {
+        byte[] bytes = text.toByteArray();
+        text = null;
+        int start = 0;
+        int end = bytes.length;
+        while (start < end && Character.isWhitespace(bytes[start])) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(bytes[end - 1])) {
+            end--;
+        }
+        String value = new String(bytes, start, end - start, "UTF-8");
+
+        if (reference != null && depth == reference.depth + 1) {
+            if (GROUP_ID.equals(textElement)) {
+                reference.groupId = value;
+            } else if (ARTIFACT_ID.equals(textElement)) {
+                reference.artifactId = value;
+            } else {
+                reference.version = value;
+                reference.versionStart = reference.buffer.size() + start;
+                reference.versionEnd = reference.buffer.size() + end;
+            }
+        } else if (isProperty()) {
+            if (properties != null) {
+                properties.define(textElement, value, depth > 3);
+            }
+            String replacement = depth == 3 ? propertyVersions.get(textElement) : null;
+            if (replacement != null) {
+                out.write(bytes, 0, start);
+                out.write(replacement.getBytes("UTF-8"));
+                out.write(bytes, end, bytes.length - end);
+                return;
+            }
+        } else if (GROUP_ID.equals(textElement)) {
+            projectGroupId = value;
+        } else if (value.endsWith(SNAPSHOT)) {
+            out.write(bytes, 0, start);
+            out.write(version.getBytes("UTF-8"));
+            out.write(bytes, end, bytes.length - end);
+            return;
+        }
+        out.write(bytes);
+    }
+
+    private void closeReference() throws IOException {
+        Reference closing = reference;
+        reference = closing.outer;
+        out = closing.target;
+        String replacement = getReplacement(closing);
+        byte[] buffered = closing.buffer.toByteArray();
+        if (replacement == null || closing.versionStart < 0) {
+            out.write(buffered);
+            return;
+        }
+        out.write(buffered, 0, closing.versionStart);
+        out.write(replacement.getBytes("UTF-8"));
+        out.write(buffered, closing.versionEnd, buffered.length - closing.versionEnd);
+    }
+
+    private String getReplacement(Reference closing) {
+        boolean parent = closing.depth == 2;
+        String groupId = closing.groupId;
+        if (groupId == null && PLUGIN.equals(closing.element)) {
+            groupId = DEFAULT_PLUGIN_GROUP_ID;
+        } else if (groupId != null && !parent) {
+            groupId = ReactorVersions.resolveGroupId(groupId, projectGroupId != null ? projectGroupId : parentGroupId);
+        }
+        if (parent) {
+            parentGroupId = groupId;
+        }
+        if (closing.version == null) {
+            return null;
+        }
+        if (versions != null && groupId != null && closing.artifactId != null) {
+            String replacement = versions.getReplacement(groupId, closing.artifactId, closing.version);
+            if (replacement != null) {
+                return replacement;
+            }
+            properties.use(groupId, closing.artifactId, closing.version);
+        }
+        return parent && closing.version.endsWith(SNAPSHOT) ? version : null;
+    }
+
+    /**
+     * Copies the rest of a tag through its closing bracket, skipping brackets inside quoted attribute values.
+     *
+     * @return true if the tag was self closing.
+     */
+    private boolean copyTag() throws IOException {
+        int quote = 0;
+        int previous = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            out.write(c);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return previous == '/';
+            }
+            previous = c;
+        }
+        return false;
+    }
+
+    private void copyDeclaration() throws IOException {
+        int nesting = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            out.write(c);
+            if (c == '[') {
+                nesting++;
+            } else if (c == ']') {
+                nesting--;
+            } else if (c == '>' && nesting <= 0) {
+                return;
+            }
+        }
+    }
+
+    private boolean lookingAt(String expected) throws IOException {
+        for (int i = 0; i < expected.length(); i++) {
+            if (in.read() != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void copyThrough(String terminator) throws IOException {
+        int length = terminator.length();
+        char[] window = new char[length];
+        int count = 0;
+        int c;
+        while ((c = in.read()) != -1) {
+            out.write(c);
+            System.arraycopy(window, 1, window, 0, length - 1);
+            window[length - 1] = (char) c;
+            if (++count >= length && matches(window, terminator)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean matches(char[] window, String terminator) {
+        for (int i = 0; i < window.length; i++) {
+            if (window[i] != terminator.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Passes the output through, counting the property expressions in it.
+     */
+    private static class ExpressionCounter extends OutputStream {
+        private final OutputStream target;
+        private final PropertyVersions properties;
+        private final StringBuilder name = new StringBuilder();
+        private int state;
+
+        ExpressionCounter(OutputStream target, PropertyVersions properties) {
+            this.target = target;
+            this.properties = properties;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            if (state == 0) {
+                state = b == '$' ? 1 : 0;
+            } else if (state == 1) {
+                state = b == '{' ? 2 : b == '$' ? 1 : 0;
+                name.setLength(0);
+            } else if (b == '}') {
+                properties.occurs(name.toString());
+                state = 0;
+            } else if (b == '<' || name.length() >= MAX_TEXT_LENGTH) {
+                state = 0;
+            } else {
+                name.append((char) b);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+
+    /**
+     * An open parent, dependency, plugin or extension element. Its content is buffered until the element ends, as its
+     * version may come before its coordinates.
+     */
+    private static class Reference {
+        private final String element;
+        private final int depth;
+        private final OutputStream target;
+        private final Reference outer;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private String groupId;
+        private String artifactId;
+        private String version;
+        private int versionStart = -1;
+        private int versionEnd;
+
+        Reference(String element, int depth, OutputStream target, Reference outer) {
+            this.element = element;
+            this.depth = depth;
+            this.target = target;
+            this.outer = outer;
+        }
+    }
+}
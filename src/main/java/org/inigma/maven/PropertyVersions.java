@@ -0,0 +1,139 @@
+package org.inigma.maven;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the references to reactor modules of a POM whose version is a property, as in
+ * <code>&lt;version&gt;${lib.version}&lt;/version&gt;</code>, to rewrite the property itself. A property defined once
+ * in the properties of the project is rewritten to the final version of the modules when it is used by nothing but
+ * references to reactor modules at their original version, all of them having the same final version. Otherwise the
+ * references keep the property, and those that resolve to the original version of a module, or to a property defined
+ * elsewhere such as in a parent POM, are reported as left stale.
+ */
+class PropertyVersions {
+    private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]+)\\}");
+
+    private final ReactorVersions versions;
+    private final Map<String, String> definitions = new HashMap<String, String>();
+    private final Set<String> redefined = new HashSet<String>();
+    private final Map<String, Integer> occurrences = new HashMap<String, Integer>();
+    private final List<String[]> uses = new ArrayList<String[]>();
+
+    PropertyVersions(ReactorVersions versions) {
+        this.versions = versions;
+    }
+
+    /**
+     * @return the name of the property if the version is a single property expression Maven does not provide itself,
+     * otherwise null.
+     */
+    static String getPropertyName(String version) {
+        if (version == null || !version.startsWith("${") || !version.endsWith("}")
+                || version.indexOf('}') != version.length() - 1) {
+            return null;
+        }
+        String name = version.substring(2, version.length() - 1);
+        if (name.startsWith("project.") || name.startsWith("pom.") || name.startsWith("parent.")
+                || "version".equals(name)) {
+            return null;
+        }
+        return name;
+    }
+
+    /**
+     * @param profile true for a property defined in a profile, which is never rewritten.
+     */
+    void define(String name, String value, boolean profile) {
+        if (profile || definitions.containsKey(name)) {
+            redefined.add(name);
+        }
+        if (!profile) {
+            definitions.put(name, value);
+        }
+    }
+
+    /**
+     * Counts an expression of the property anywhere in the POM, references to reactor modules included.
+     */
+    void occurs(String name) {
+        Integer count = occurrences.get(name);
+        occurrences.put(name, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Counts every property expression in the text.
+     */
+    void occursIn(String text) {
+        Matcher matcher = EXPRESSION.matcher(text);
+        while (matcher.find()) {
+            occurs(matcher.group(1));
+        }
+    }
+
+    /**
+     * Records a reference that was not rewritten, if it is to a reactor module through a property.
+     */
+    void use(String groupId, String artifactId, String version) {
+        String name = getPropertyName(version);
+        if (name != null && groupId != null && artifactId != null
+                && versions.getFinalVersion(groupId, artifactId) != null) {
+            uses.add(new String[] { name, groupId, artifactId });
+        }
+    }
+
+    /**
+     * @return the properties to rewrite, mapped to their final version.
+     */
+    Map<String, String> getReplacements() {
+        Map<String, String> replacements = new HashMap<String, String>();
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Set<String> rejected = new HashSet<String>(redefined);
+        for (String[] use : uses) {
+            String name = use[0];
+            String value = definitions.get(name);
+            String replacement = value == null ? null : versions.getReplacement(use[1], use[2], value);
+            String previous = replacements.put(name, replacement);
+            if (replacement == null || previous != null && !previous.equals(replacement)) {
+                rejected.add(name);
+            }
+            Integer count = counts.get(name);
+            counts.put(name, count == null ? 1 : count + 1);
+        }
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            if (!count.getValue().equals(occurrences.get(count.getKey()))) {
+                rejected.add(count.getKey());
+            }
+        }
+        replacements.keySet().removeAll(rejected);
+        return replacements;
+    }
+
+    /**
+     * @return a message for every reference to a reactor module left at its original version by a property.
+     */
+    List<String> getStaleReferences(Map<String, String> replacements) {
+        List<String> stale = new ArrayList<String>();
+        for (String[] use : uses) {
+            String name = use[0];
+            if (replacements.containsKey(name)) {
+                continue;
+            }
+            String value = definitions.get(name);
+            if (value == null) {
+                stale.add("The reference to " + use[1] + ":" + use[2] + " keeps the version ${" + name
+                        + "}, which is not defined in the properties of this POM");
+            } else if (versions.getReplacement(use[1], use[2], value) != null) {
+                stale.add("The reference to " + use[1] + ":" + use[2] + " keeps the version ${" + name + "} = "
+                        + value + ", which is also used for something else or redefined in a profile");
+            }
+        }
+        return stale;
+    }
+}
@@ -0,0 +1,123 @@
+package org.inigma.maven;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.sonatype.aether.SessionData;
+
+/**
+ * Build scoped queue of work deferred to the end of the reactor. Every module running the goal adds its items, an
+ * empty list when it has nothing to add, and the module that completes the set receives everything queued, so nothing
+ * is processed when a module fails before the end of the build. Modules are counted once each, which also makes the
+ * last module well defined under a parallel build.
+ * <p/>
+ * The set is made of the projects of the session, which already leaves out those excluded by -pl or -rf, that either
+ * bind the goal in their build or run it because it was given on the command line. Items still queued when the session
+ * ends are reported as an error, unless the build failed.
+ */
+public class ReactorQueue<T> {
+    private final String goal;
+    private final Set<String> expected;
+    private final List<T> items = new ArrayList<T>();
+    private final Set<String> modules = new HashSet<String>();
+    private boolean pending;
+
+    private ReactorQueue(String goal, Set<String> expected) {
+        this.goal = goal;
+        this.expected = expected;
+    }
+
+    /**
+     * @param goal the goal of this plugin queueing the work.
+     * @param log where to report work left queued when the session ends.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ReactorQueue<T> get(final MavenSession session, String goal, final Log log) {
+        String key = ReactorVersions.sessionKey(ReactorQueue.class) + "." + goal;
+        SessionData data = session.getRepositorySession().getData();
+        ReactorQueue<T> queue = (ReactorQueue<T>) data.get(key);
+        if (queue == null) {
+            final ReactorQueue<T> created = new ReactorQueue<T>(goal, getExecutingModules(session, goal));
+            if (data.set(key, null, created)) {
+                SessionEndListener.add(session, new Runnable() {
+                    public void run() {
+                        created.checkFlushed(session, log);
+                    }
+                });
+            }
+            queue = (ReactorQueue<T>) data.get(key);
+        }
+        return queue;
+    }
+
+    /**
+     * Queues the items of a module.
+     *
+     * @return everything queued by the reactor once the last module has added its items, otherwise null.
+     */
+    public synchronized List<T> add(MavenProject project, List<T> projectItems) {
+        items.addAll(projectItems);
+        modules.add(getModuleKey(project));
+        if (!modules.containsAll(expected)) {
+            pending = true;
+            return null;
+        }
+        pending = false;
+        List<T> all = new ArrayList<T>(items);
+        items.clear();
+        return all;
+    }
+
+    private synchronized void checkFlushed(MavenSession session, Log log) {
+        if (!pending) {
+            return;
+        }
+        Set<String> missing = new TreeSet<String>(expected);
+        missing.removeAll(modules);
+        if (session.getResult().hasExceptions()) {
+            log.info(items.size() + " items queued by " + goal + " were left out since the build failed");
+        } else {
+            log.error(items.size() + " items queued by " + goal + " for the end of the build were never processed, "
+                    + "waiting for " + missing);
+        }
+    }
+
+    /**
+     * @return the modules of the session that run the goal.
+     */
+    static Set<String> getExecutingModules(MavenSession session, String goal) {
+        boolean requested = ScmVersionLifecycleParticipant.isGoalRequested(session, goal);
+        Set<String> executing = new HashSet<String>();
+        for (MavenProject project : session.getProjects()) {
+            if (requested || isBound(project, goal)) {
+                executing.add(getModuleKey(project));
+            }
+        }
+        return executing;
+    }
+
+    private static boolean isBound(MavenProject project, String goal) {
+        Plugin plugin = project.getPlugin(ScmVersionLifecycleParticipant.PLUGIN_KEY);
+        if (plugin == null) {
+            return false;
+        }
+        for (PluginExecution execution : plugin.getExecutions()) {
+            if (execution.getGoals().contains(goal) && !"none".equals(execution.getPhase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getModuleKey(MavenProject project) {
+        return project.getGroupId() + ":" + project.getArtifactId();
+    }
+}
@@ -0,0 +1,337 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.maven.model.Dependency;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Works out and applies the SCM based version of every project in the reactor. Shared by the gitVersion goal and the
+ * build extension so both modes version projects identically.
+ */
+public class ReactorVersionResolver {
+    public static final String DEFAULT_PATTERN = "${scmVersion.branch}-SNAPSHOT";
+    public static final String DEFAULT_CI_BRANCH_VARIABLES =
+            "GIT_BRANCH,BRANCH_NAME,CI_COMMIT_REF_NAME,GITHUB_HEAD_REF,GITHUB_REF_NAME,TRAVIS_BRANCH,BITBUCKET_BRANCH";
+    public static final String TIMESTAMP_SESSION = "session";
+    public static final String TIMESTAMP_COMMIT = "commit";
+    private static final String SOURCE_DATE_EPOCH = "SOURCE_DATE_EPOCH";
+
+    private final Log log;
+    private final String versionPattern;
+    private boolean ciMode;
+    private String ciBranchVariables = DEFAULT_CI_BRANCH_VARIABLES;
+    private PluginMetrics metrics = PluginMetrics.none();
+    private File manifest;
+    private boolean writeManifest;
+    private String timestampSource = TIMESTAMP_SESSION;
+    private Date sessionTimestamp = new Date();
+    private Date timestamp;
+
+    public ReactorVersionResolver(Log log, String versionPattern) {
+        this.log = log;
+        this.versionPattern = versionPattern;
+    }
+
+    public void setCiMode(boolean ciMode) {
+        this.ciMode = ciMode;
+    }
+
+    public void setCiBranchVariables(String ciBranchVariables) {
+        this.ciBranchVariables = ciBranchVariables;
+    }
+
+    public void setMetrics(PluginMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param manifest the version manifest to apply when it matches HEAD, or to write, see
+     * {@link #setWriteManifest(boolean)}.
+     */
+    public void setManifest(File manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * @param writeManifest true to always resolve the versions from git and record them in the manifest.
+     */
+    public void setWriteManifest(boolean writeManifest) {
+        this.writeManifest = writeManifest;
+    }
+
+    /**
+     * @param timestampSource where the single timestamp of the reactor comes from, {@link #TIMESTAMP_SESSION} or
+     * {@link #TIMESTAMP_COMMIT}. The SOURCE_DATE_EPOCH environment variable takes precedence over either.
+     */
+    public void setTimestampSource(String timestampSource) {
+        this.timestampSource = timestampSource;
+    }
+
+    /**
+     * @param sessionTimestamp the start of the build, used for the session timestamp source.
+     */
+    public void setSessionTimestamp(Date sessionTimestamp) {
+        this.sessionTimestamp = sessionTimestamp;
+    }
+
+    private Log getLog() {
+        return log;
+    }
+
+    /**
+     * Versions every project, recording the changes in the build scoped versions.
+     *
+     * @return the projects whose version was altered.
+     */
+    public List<MavenProject> resolve(List<MavenProject> projects, ReactorVersions versions, GitContext gitContext) {
+        List<MavenProject> altered = applyManifest(projects, versions, gitContext);
+        if (altered == null) {
+            altered = new ArrayList<MavenProject>();
+            for (MavenProject prj : projects) {
+                if (updateProjectInformation(prj, versions, gitContext)) {
+                    altered.add(prj);
+                }
+            }
+            if (writeManifest) {
+                writeManifest(projects, versions, gitContext);
+            }
+        }
+        if (!altered.isEmpty()) {
+            for (MavenProject prj : projects) {
+                updateReferences(prj, versions);
+            }
+        }
+        return altered;
+    }
+
+    /**
+     * Applies the versions of the manifest if it was written for the current HEAD and pattern and covers every
+     * project.
+     *
+     * @return the projects whose version was altered, or null if the versions have to be resolved.
+     */
+    private List<MavenProject> applyManifest(List<MavenProject> projects, ReactorVersions versions,
+            GitContext gitContext) {
+        if (manifest == null || writeManifest || projects.isEmpty()) {
+            return null;
+        }
+        VersionManifest resolved = VersionManifest.read(manifest);
+        if (resolved == null) {
+            return null;
+        }
+        GitHead head = getHead(projects, gitContext);
+        if (!resolved.matches(head, versionPattern)) {
+            getLog().info("Version manifest " + manifest + " does not match HEAD " + head + ", resolving versions");
+            return null;
+        }
+        for (MavenProject prj : projects) {
+            if (resolved.getFinalVersion(prj) == null) {
+                getLog().info("Version manifest " + manifest + " does not cover " + prj + ", resolving versions");
+                return null;
+            }
+        }
+
+        getLog().info("Applying versions from manifest " + manifest);
+        List<MavenProject> altered = new ArrayList<MavenProject>();
+        for (MavenProject prj : projects) {
+            String finalVersion = resolved.getFinalVersion(prj);
+            if (!prj.getVersion().equals(finalVersion)) {
+                applyVersion(prj, finalVersion, versions);
+                altered.add(prj);
+            }
+        }
+        return altered;
+    }
+
+    /**
+     * Records the versions of the projects, which must have been resolved already, in the manifest.
+     */
+    public void writeManifest(List<MavenProject> projects, ReactorVersions versions, GitContext gitContext) {
+        GitHead head = getHead(projects, gitContext);
+        if (head == null || head.getObjectId() == null) {
+            getLog().warn("No git commit to record versions for, not writing " + manifest);
+            return;
+        }
+        try {
+            VersionManifest.create(head, versionPattern, projects, versions).write(manifest);
+            getLog().info("Wrote version manifest " + manifest);
+        } catch (IOException e) {
+            getLog().warn("Unable to write version manifest " + manifest, e);
+        }
+    }
+
+    /**
+     * @return HEAD of the git directory of the first project of the reactor, or null if there is none.
+     */
+    private GitHead getHead(List<MavenProject> projects, GitContext gitContext) {
+        File gitDir = gitContext.findGitDir(projects.get(0).getBasedir());
+        if (gitDir == null) {
+            return null;
+        }
+        try {
+            return gitContext.getHead(gitDir);
+        } catch (IOException e) {
+            getLog().debug("Unable to read HEAD of " + gitDir, e);
+            return null;
+        }
+    }
+
+    /**
+     * Fills in the commit based variables, only doing the history walk when the pattern asks for its results.
+     */
+    private void applyCommitVariables(VersionInformation version, GitContext gitContext, File gitDir, GitHead head)
+            throws IOException {
+        VersionTemplate template = version.getTemplate();
+        version.setCommit(head.getObjectId());
+        if (template.references(VersionTemplate.DISTANCE) || template.references(VersionTemplate.DESCRIBE)) {
+            version.setDescription(gitContext.getDescription(gitDir));
+        }
+        if (template.references(VersionTemplate.DATE)) {
+            version.setTimestamp(getTimestamp(gitContext, gitDir));
+        }
+    }
+
+    /**
+     * Works out the timestamp once for the whole reactor, so every module renders the same date and rebuilding the
+     * same commit with SOURCE_DATE_EPOCH or the commit source yields the same versions.
+     */
+    private Date getTimestamp(GitContext gitContext, File gitDir) throws IOException {
+        if (timestamp != null) {
+            return timestamp;
+        }
+        String epoch = System.getenv(SOURCE_DATE_EPOCH);
+        if (epoch != null && epoch.trim().length() > 0) {
+            try {
+                timestamp = new Date(Long.parseLong(epoch.trim()) * 1000L);
+                getLog().debug("Using timestamp " + timestamp + " from " + SOURCE_DATE_EPOCH);
+                return timestamp;
+            } catch (NumberFormatException e) {
+                getLog().warn("Ignoring " + SOURCE_DATE_EPOCH + " " + epoch + ", it is not a number of seconds");
+            }
+        }
+        if (TIMESTAMP_COMMIT.equals(timestampSource)) {
+            timestamp = gitContext.getCommitTime(gitDir);
+            if (timestamp != null) {
+                getLog().debug("Using timestamp " + timestamp + " of the HEAD commit");
+                return timestamp;
+            }
+        } else if (!TIMESTAMP_SESSION.equals(timestampSource)) {
+            getLog().warn("Unknown timestampSource " + timestampSource + ", using the start of the build");
+        }
+        timestamp = sessionTimestamp == null ? new Date() : sessionTimestamp;
+        return timestamp;
+    }
+
+    private String getCiBranch() {
+        for (String variable : ciBranchVariables.split(",")) {
+            String value = System.getenv(variable.trim());
+            if (value != null && value.trim().length() > 0) {
+                value = value.trim();
+                if (value.startsWith("refs/heads/")) {
+                    value = value.substring("refs/heads/".length());
+                } else if (value.startsWith("origin/")) {
+                    value = value.substring("origin/".length());
+                }
+                getLog().debug("Using branch " + value + " from environment variable " + variable.trim());
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the version of the project was altered.
+     */
+    boolean updateProjectInformation(MavenProject prj, ReactorVersions versions, GitContext gitContext) {
+        boolean abortVersioning = false;
+        getLog().info("Executing GitVersionBranchMojo  with pattern " + versionPattern + " on " + prj);
+        VersionInformation version = new VersionInformation(versionPattern);
+        String versionString = prj.getVersion();
+        version.setSnapshot(versionString.endsWith("-SNAPSHOT"));
+        if (version.isSnapshot()) {
+            version.setVersion(versionString.substring(0, versionString.indexOf("-SNAPSHOT")));
+        } else {
+            version.setVersion(versionString);
+        }
+
+        if (version.isSnapshot()) {
+            long start = metrics.start();
+            File gitDir = gitContext.findGitDir(prj.getBasedir());
+            metrics.record(PluginMetrics.GIT_DIR, start);
+            String branch = "master";
+            if (gitDir == null) {
+                getLog().warn("Git Repository could not be found. Not executing versioning ...");
+                abortVersioning = true;
+            } else {
+                start = metrics.start();
+                try {
+                    GitHead head = gitContext.getHead(gitDir);
+                    if (head.isDetached() && ciMode) {
+                        String ciBranch = getCiBranch();
+                        if (ciBranch != null) {
+                            branch = ciBranch;
+                        }
+                    } else if (!head.isDetached() && head.getObjectId() != null) {
+                        branch = head.getBranch();
+                    }
+                    applyCommitVariables(version, gitContext, gitDir, head);
+                } catch (IllegalArgumentException e) {
+                    getLog().warn("Git Repository could not be found. Not executing versioning");
+                    abortVersioning = true;
+                } catch (IOException e) {
+                    getLog().warn("Unable to understand the git repository. Not executing versioning ...", e);
+                    abortVersioning = true;
+                } finally {
+                    metrics.record(PluginMetrics.BRANCH, start);
+                }
+            }
+
+            version.setBranchName(branch);
+        }
+
+        long start = metrics.start();
+        String finalVersion = version.getFinalVersion();
+        metrics.record(PluginMetrics.RENDER, start);
+        if (abortVersioning || prj.getVersion().equals(finalVersion)) {
+            getLog().info("No version alterations applied!");
+            return false;
+        }
+
+        applyVersion(prj, finalVersion, versions);
+        return true;
+    }
+
+    private void applyVersion(MavenProject prj, String finalVersion, ReactorVersions versions) {
+        getLog().info("Altering versions to " + finalVersion);
+        String originalVersion = prj.getVersion();
+        prj.getProperties().put("scmVersion", finalVersion); // branch-SNAPSHOT
+        prj.setVersion(finalVersion);
+        prj.getArtifact().setVersion(finalVersion);
+        prj.getArtifact().setBaseVersion(finalVersion);
+        versions.put(prj, originalVersion, finalVersion);
+    }
+
+    /**
+     * Points the references to reactor modules at their final versions, as looked up in the reactor-wide index. A
+     * versioned project's dependencies on modules of its own groupId that are not part of the reactor follow the
+     * project's version, as they are expected to be built from the same branch.
+     */
+    private void updateReferences(MavenProject prj, ReactorVersions versions) {
+        String finalVersion = versions.getFinalVersion(prj.getGroupId(), prj.getArtifactId());
+        if (finalVersion != null) {
+            for (Dependency dependency : prj.getDependencies()) {
+                if (prj.getGroupId().equals(dependency.getGroupId())
+                        && versions.getFinalVersion(dependency.getGroupId(), dependency.getArtifactId()) == null) {
+                    dependency.setVersion(finalVersion);
+                }
+            }
+        }
+        versions.updateReferences(prj.getModel());
+    }
+}
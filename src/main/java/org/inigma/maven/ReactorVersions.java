@@ -0,0 +1,263 @@
+package org.inigma.maven;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.BuildBase;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.DependencyManagement;
+import org.apache.maven.model.Extension;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginManagement;
+import org.apache.maven.model.Profile;
+import org.apache.maven.project.MavenProject;
+import org.sonatype.aether.SessionData;
+
+/**
+ * Build scoped record of the versions applied to the reactor. The instance lives in the repository session data so
+ * that every module execution of the same build shares it, including the cloned sessions of a parallel build.
+ * Callers applying versions synchronize on the instance; {@link #isApplied()} is safe to check without the lock.
+ * <p/>
+ * The build extension and the plugin goals run in separate class realms, each with its own copy of this class, so the
+ * instance is keyed per realm and the extension publishes its work through a plain marker, see
+ * {@link #isAppliedByExtension(MavenSession)}.
+ */
+public class ReactorVersions {
+    private static final String SESSION_KEY = sessionKey(ReactorVersions.class);
+    private static final String EXTENSION_KEY = ReactorVersions.class.getName() + ".extension";
+
+    private final Map<String, String> originalVersions = new ConcurrentHashMap<String, String>();
+    private final Map<String, String> finalVersions = new ConcurrentHashMap<String, String>();
+    private volatile boolean applied;
+    private volatile String fingerprint;
+
+    public static ReactorVersions get(MavenSession session) {
+        SessionData data = session.getRepositorySession().getData();
+        ReactorVersions versions = (ReactorVersions) data.get(SESSION_KEY);
+        if (versions == null) {
+            data.set(SESSION_KEY, null, new ReactorVersions());
+            versions = (ReactorVersions) data.get(SESSION_KEY);
+        }
+        return versions;
+    }
+
+    /**
+     * @return a session data key for the given type that is private to the class realm the type was loaded in.
+     */
+    static String sessionKey(Class<?> type) {
+        return type.getName() + "@" + Integer.toHexString(System.identityHashCode(type));
+    }
+
+    /**
+     * @return true if the build extension already versioned the reactor of this build.
+     */
+    public static boolean isAppliedByExtension(MavenSession session) {
+        return Boolean.TRUE.equals(session.getRepositorySession().getData().get(EXTENSION_KEY));
+    }
+
+    public static void setAppliedByExtension(MavenSession session) {
+        session.getRepositorySession().getData().set(EXTENSION_KEY, Boolean.TRUE);
+    }
+
+    private static String key(String groupId, String artifactId) {
+        return groupId + ":" + artifactId;
+    }
+
+    public boolean isApplied() {
+        return applied;
+    }
+
+    public void setApplied(boolean applied) {
+        this.applied = applied;
+    }
+
+    public void put(MavenProject project, String originalVersion, String finalVersion) {
+        String key = key(project.getGroupId(), project.getArtifactId());
+        originalVersions.put(key, originalVersion);
+        finalVersions.put(key, finalVersion);
+        fingerprint = null;
+    }
+
+    public String getOriginalVersion(String groupId, String artifactId) {
+        return originalVersions.get(key(groupId, artifactId));
+    }
+
+    public String getFinalVersion(String groupId, String artifactId) {
+        return finalVersions.get(key(groupId, artifactId));
+    }
+
+    /**
+     * @return the final version of the reactor module if the reference is to its original version, otherwise null.
+     */
+    public String getReplacement(String groupId, String artifactId, String version) {
+        if (groupId == null || artifactId == null || version == null) {
+            return null;
+        }
+        String key = key(groupId, artifactId);
+        String finalVersion = finalVersions.get(key);
+        return finalVersion != null && version.equals(originalVersions.get(key)) ? finalVersion : null;
+    }
+
+    /**
+     * @return the groupId with the project's own groupId in place of a <code>${project.groupId}</code> reference.
+     */
+    static String resolveGroupId(String groupId, String projectGroupId) {
+        if ("${project.groupId}".equals(groupId) || "${pom.groupId}".equals(groupId) || "${groupId}".equals(groupId)) {
+            return projectGroupId;
+        }
+        return groupId;
+    }
+
+    /**
+     * @return a digest of every original and final version, identifying the index POMs were rewritten with.
+     */
+    public String getFingerprint() {
+        String result = fingerprint;
+        if (result == null) {
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-1");
+                for (Entry<String, String> entry : new TreeMap<String, String>(finalVersions).entrySet()) {
+                    String line = entry.getKey() + ":" + originalVersions.get(entry.getKey()) + ">" + entry.getValue()
+                            + "\n";
+                    digest.update(line.getBytes("UTF-8"));
+                }
+                result = ChecksumEngine.toHex(digest.digest());
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Points the parent, dependencies, managed dependencies, plugins with their dependencies and extensions of the
+     * model and its profiles that reference a reactor module at its original version to the module's final version.
+     */
+    public void updateReferences(Model model) {
+        updateReferences(model, null);
+    }
+
+    /**
+     * Updates the references of a model as read from its POM, recording those left as they are that take their
+     * version from a property.
+     */
+    void updateReferences(Model model, PropertyVersions properties) {
+        Parent parent = model.getParent();
+        String groupId = model.getGroupId();
+        if (parent != null) {
+            String replacement = getReplacement(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+            if (replacement != null) {
+                parent.setVersion(replacement);
+            }
+            if (groupId == null) {
+                groupId = parent.getGroupId();
+            }
+        }
+        updateReferences(groupId, model.getDependencies(), model.getDependencyManagement(), model.getBuild(),
+                properties);
+        Build build = model.getBuild();
+        if (build != null) {
+            for (Extension extension : build.getExtensions()) {
+                String extensionGroupId = resolveGroupId(extension.getGroupId(), groupId);
+                String replacement = getReplacement(extensionGroupId, extension.getArtifactId(),
+                        extension.getVersion());
+                if (replacement != null) {
+                    extension.setVersion(replacement);
+                } else if (properties != null) {
+                    properties.use(extensionGroupId, extension.getArtifactId(), extension.getVersion());
+                }
+            }
+        }
+        for (Profile profile : model.getProfiles()) {
+            updateReferences(groupId, profile.getDependencies(), profile.getDependencyManagement(),
+                    profile.getBuild(), properties);
+        }
+    }
+
+    private void updateReferences(String projectGroupId, List<Dependency> dependencies,
+            DependencyManagement dependencyManagement, BuildBase build, PropertyVersions properties) {
+        updateDependencies(projectGroupId, dependencies, properties);
+        if (dependencyManagement != null) {
+            updateDependencies(projectGroupId, dependencyManagement.getDependencies(), properties);
+        }
+        if (build == null) {
+            return;
+        }
+        updatePlugins(projectGroupId, build.getPlugins(), properties);
+        PluginManagement pluginManagement = build.getPluginManagement();
+        if (pluginManagement != null) {
+            updatePlugins(projectGroupId, pluginManagement.getPlugins(), properties);
+        }
+    }
+
+    private void updateDependencies(String projectGroupId, List<Dependency> dependencies,
+            PropertyVersions properties) {
+        for (Dependency dependency : dependencies) {
+            String groupId = resolveGroupId(dependency.getGroupId(), projectGroupId);
+            String replacement = getReplacement(groupId, dependency.getArtifactId(), dependency.getVersion());
+            if (replacement != null) {
+                dependency.setVersion(replacement);
+            } else if (properties != null) {
+                properties.use(groupId, dependency.getArtifactId(), dependency.getVersion());
+            }
+        }
+    }
+
+    private void updatePlugins(String projectGroupId, List<Plugin> plugins, PropertyVersions properties) {
+        for (Plugin plugin : plugins) {
+            String groupId = resolveGroupId(plugin.getGroupId(), projectGroupId);
+            String replacement = getReplacement(groupId, plugin.getArtifactId(), plugin.getVersion());
+            if (replacement != null) {
+                plugin.setVersion(replacement);
+            } else if (properties != null) {
+                properties.use(groupId, plugin.getArtifactId(), plugin.getVersion());
+            }
+            updateDependencies(projectGroupId, plugin.getDependencies(), properties);
+        }
+    }
+
+    /**
+     * Re-keys the projects of a reactor map, keyed by <code>groupId:artifactId:version</code>, from their original to
+     * their final version in a single pass over its entries.
+     *
+     * @return the projects whose entries were re-keyed.
+     */
+    public List<MavenProject> rekey(Map<String, MavenProject> projectsByGAV) {
+        List<MavenProject> rekeyed = new ArrayList<MavenProject>();
+        Map<String, MavenProject> renamed = new HashMap<String, MavenProject>();
+        for (Iterator<Entry<String, MavenProject>> it = projectsByGAV.entrySet().iterator(); it.hasNext();) {
+            Entry<String, MavenProject> entry = it.next();
+            String key = entry.getKey();
+            int versionIndex = key.lastIndexOf(':');
+            if (versionIndex < 0) {
+                continue;
+            }
+            String ga = key.substring(0, versionIndex);
+            String finalVersion = finalVersions.get(ga);
+            if (finalVersion == null || !key.substring(versionIndex + 1).equals(originalVersions.get(ga))) {
+                continue;
+            }
+            it.remove();
+            renamed.put(ga + ":" + finalVersion, entry.getValue());
+            rekeyed.add(entry.getValue());
+        }
+        projectsByGAV.putAll(renamed);
+        return rekeyed;
+    }
+}
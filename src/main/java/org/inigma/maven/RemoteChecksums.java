@@ -0,0 +1,137 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.repository.ArtifactRepositoryPolicy;
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.Snapshot;
+import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.repository.legacy.WagonManager;
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.apache.maven.wagon.TransferFailedException;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+/**
+ * Reads the SHA-1 sidecars of artifacts already in a remote repository, so that deploying can skip files whose bytes
+ * are unchanged. Only the small sidecar files are transferred, plus the <code>maven-metadata.xml</code> of a SNAPSHOT
+ * version to find the name of its latest timestamped files. Anything that cannot be read is reported as unknown and
+ * the artifact is deployed as usual.
+ */
+public class RemoteChecksums {
+    private static final String SNAPSHOT = "SNAPSHOT";
+
+    private final WagonManager wagonManager;
+    private final ArtifactRepository repository;
+    private final File workDirectory;
+    private final Log log;
+    private final Map<String, Versioning> snapshots = new HashMap<String, Versioning>();
+
+    public RemoteChecksums(WagonManager wagonManager, ArtifactRepository repository, File workDirectory, Log log) {
+        this.wagonManager = wagonManager;
+        this.repository = repository;
+        this.workDirectory = workDirectory;
+        this.log = log;
+    }
+
+    /**
+     * @return the SHA-1 of the artifact as published in the remote repository, or null if it is not deployed or its
+     * sidecar cannot be read.
+     */
+    public String getSha1(String groupId, String artifactId, String baseVersion, String classifier,
+            String extension) {
+        if (!"default".equals(repository.getLayout().getId())) {
+            return null;
+        }
+        String directory = groupId.replace('.', '/') + "/" + artifactId + "/" + baseVersion + "/";
+        String fileVersion = baseVersion;
+        if (baseVersion.endsWith(SNAPSHOT)) {
+            fileVersion = getSnapshotVersion(directory, baseVersion, classifier, extension);
+            if (fileVersion == null) {
+                return null;
+            }
+        }
+        StringBuilder path = new StringBuilder(directory).append(artifactId).append('-').append(fileVersion);
+        if (classifier != null && classifier.length() > 0) {
+            path.append('-').append(classifier);
+        }
+        path.append('.').append(extension).append(".sha1");
+
+        String content = fetch(path.toString());
+        if (content == null) {
+            return null;
+        }
+        String[] tokens = content.trim().split("\\s+");
+        return tokens.length == 0 || tokens[0].length() == 0 ? null : tokens[0].toLowerCase();
+    }
+
+    private String getSnapshotVersion(String directory, String baseVersion, String classifier, String extension) {
+        if (!snapshots.containsKey(directory)) {
+            snapshots.put(directory, readVersioning(directory + "maven-metadata.xml"));
+        }
+        Versioning versioning = snapshots.get(directory);
+        if (versioning == null) {
+            return null;
+        }
+        String wantedClassifier = classifier == null ? "" : classifier;
+        for (SnapshotVersion snapshotVersion : versioning.getSnapshotVersions()) {
+            String candidate = snapshotVersion.getClassifier() == null ? "" : snapshotVersion.getClassifier();
+            if (candidate.equals(wantedClassifier) && extension.equals(snapshotVersion.getExtension())) {
+                return snapshotVersion.getVersion();
+            }
+        }
+        Snapshot snapshot = versioning.getSnapshot();
+        if (snapshot == null || snapshot.getTimestamp() == null) {
+            return null;
+        }
+        return baseVersion.substring(0, baseVersion.length() - SNAPSHOT.length()) + snapshot.getTimestamp() + "-"
+                + snapshot.getBuildNumber();
+    }
+
+    private Versioning readVersioning(String path) {
+        String content = fetch(path);
+        if (content == null) {
+            return null;
+        }
+        try {
+            Metadata metadata = new MetadataXpp3Reader().read(new StringReader(content), false);
+            return metadata.getVersioning();
+        } catch (IOException e) {
+            log.debug("Unable to read " + path + " from " + repository.getId(), e);
+        } catch (XmlPullParserException e) {
+            log.debug("Unable to understand " + path + " from " + repository.getId(), e);
+        }
+        return null;
+    }
+
+    private String fetch(String path) {
+        File file = null;
+        try {
+            workDirectory.mkdirs();
+            file = File.createTempFile("remote-", ".tmp", workDirectory);
+            wagonManager.getRemoteFile(repository, file, path, null, ArtifactRepositoryPolicy.CHECKSUM_POLICY_IGNORE,
+                    true);
+            return FileUtils.fileRead(file, ReaderFactory.UTF_8);
+        } catch (ResourceDoesNotExistException e) {
+            log.debug(path + " is not in " + repository.getId());
+        } catch (TransferFailedException e) {
+            log.debug("Unable to fetch " + path + " from " + repository.getId(), e);
+        } catch (IOException e) {
+            log.debug("Unable to fetch " + path + " from " + repository.getId(), e);
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+        return null;
+    }
+}
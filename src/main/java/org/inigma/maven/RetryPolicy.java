@@ -0,0 +1,169 @@
+package org.inigma.maven;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Retries deployments with exponential backoff. The delay doubles from the initial delay up to the maximum delay, and
+ * a random jitter of up to half the delay keeps the modules of parallel builds from retrying in lockstep. Retrying
+ * stops after the configured number of attempts, when the next attempt would start past the time budget, or at once
+ * when the failure is permanent, such as a 4xx response other than 408 and 429.
+ */
+public class RetryPolicy {
+    // "Return code is: 503" from the HTTP wagon, "status code: 503" from Aether
+    private static final Pattern STATUS_CODE = Pattern.compile("\\b(?:Return code is|status code): ?(\\d{3})\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Log log;
+    private final Random random = new Random();
+    private int attempts = 1;
+    private long initialDelay = 1000;
+    private long maxDelay = 30000;
+    private long budget = 300000;
+    private PluginMetrics metrics = PluginMetrics.none();
+
+    public RetryPolicy(Log log) {
+        this.log = log;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = Math.max(1, attempts);
+    }
+
+    /**
+     * @param initialDelay the delay before the first retry in milliseconds.
+     */
+    public void setInitialDelay(long initialDelay) {
+        this.initialDelay = Math.max(0, initialDelay);
+    }
+
+    /**
+     * @param maxDelay the upper bound of the delay between two attempts in milliseconds.
+     */
+    public void setMaxDelay(long maxDelay) {
+        this.maxDelay = Math.max(0, maxDelay);
+    }
+
+    /**
+     * @param budget the time in milliseconds after which no further attempt is started.
+     */
+    public void setBudget(long budget) {
+        this.budget = Math.max(0, budget);
+    }
+
+    public void setMetrics(PluginMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Runs the attempt until it succeeds or retrying is given up, logging the latency and size of every attempt.
+     *
+     * @param description what is being deployed, for the log.
+     * @param bytes the number of bytes an attempt transfers.
+     */
+    public <E extends Exception> void execute(String description, long bytes, Attempt<E> attempt) throws E {
+        long start = System.currentTimeMillis();
+        for (int count = 1; ; count++) {
+            long attemptStart = System.currentTimeMillis();
+            long metricsStart = metrics.start();
+            try {
+                attempt.run();
+                metrics.record(PluginMetrics.DEPLOY_ATTEMPT, metricsStart);
+                log.debug("Deployed " + description + " (" + bytes + " bytes) in "
+                        + (System.currentTimeMillis() - attemptStart) + " ms on attempt " + count);
+                return;
+            } catch (Exception e) {
+                metrics.record(PluginMetrics.DEPLOY_ATTEMPT, metricsStart);
+                E failure = attempt.cast(e);
+                long now = System.currentTimeMillis();
+                String outcome = "Attempt " + count + " of " + attempts + " to deploy " + description + " (" + bytes
+                        + " bytes) failed after " + (now - attemptStart) + " ms: " + e.getLocalizedMessage();
+                if (isPermanent(e)) {
+                    log.warn(outcome + ", not retrying a permanent failure");
+                    throw failure;
+                }
+                long delay = getDelay(count);
+                if (count >= attempts || now + delay - start > budget) {
+                    if (attempts > 1) {
+                        log.warn(outcome + ", giving up after " + (now - start) + " ms");
+                    }
+                    throw failure;
+                }
+                log.warn(outcome + ", retrying in " + delay + " ms");
+                log.debug(e);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw failure;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the delay before the retry following the given failed attempt, jitter included.
+     */
+    long getDelay(int failedAttempts) {
+        long delay = initialDelay;
+        for (int i = 1; i < failedAttempts && delay < maxDelay; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelay);
+        return delay / 2 + (delay > 1 ? (long) (random.nextDouble() * (delay / 2)) : 0);
+    }
+
+    /**
+     * @return true if retrying cannot help, as for client errors and authorization failures.
+     */
+    public static boolean isPermanent(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String name = cause.getClass().getSimpleName();
+            if (name.equals("AuthorizationException") || name.equals("AuthenticationException")) {
+                return true;
+            }
+            int status = getStatusCode(cause.getMessage());
+            if (status >= 400 && status < 500) {
+                return status != 408 && status != 429;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    static int getStatusCode(String message) {
+        if (message == null) {
+            return -1;
+        }
+        Matcher matcher = STATUS_CODE.matcher(message);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * A single deployment attempt.
+     */
+    public abstract static class Attempt<E extends Exception> {
+        private final Class<E> failureType;
+
+        protected Attempt(Class<E> failureType) {
+            this.failureType = failureType;
+        }
+
+        public abstract void run() throws E;
+
+        private E cast(Exception e) {
+            if (failureType.isInstance(e)) {
+                return failureType.cast(e);
+            }
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            throw new IllegalStateException(e);
+        }
+    }
+}
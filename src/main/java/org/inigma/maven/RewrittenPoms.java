@@ -0,0 +1,271 @@
+package org.inigma.maven;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.ReaderFactory;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.codehaus.plexus.util.WriterFactory;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+/**
+ * Content addressed store of POMs with their versions rewritten. Rewritten POMs live in <code>scm-version</code>
+ * under the module's build directory, named after a hash of the source POM content and the version, so the file
+ * produced during validate is reused by install and deploy instead of being regenerated. Files are written to a
+ * temporary name first and renamed into place. When the versions of the reactor are given, references to reactor
+ * modules are rewritten as well and the hash covers those versions too. References to reactor modules whose version
+ * property cannot be rewritten, see {@link PropertyVersions}, are reported when the POM is rewritten.
+ * <p/>
+ * Lookups are remembered in a JVM wide {@link StampedCache}, so builds in a long lived JVM find the rewritten POM
+ * without hashing the source again for as long as the source POM is untouched.
+ */
+public class RewrittenPoms {
+    public static final String CACHE_DIRECTORY = "scm-version";
+    private static final String PREFIX = "version-branch-";
+    private static final StampedCache<String, File> REWRITTEN = new StampedCache<String, File>(4096);
+
+    private RewrittenPoms() {
+    }
+
+    public static File get(File sourceFile, String version, File outputDirectory) throws IOException,
+            XmlPullParserException {
+        return get(sourceFile, version, outputDirectory, null, null);
+    }
+
+    /**
+     * @param sourceFile the POM to rewrite.
+     * @param version the version to put in place of the SNAPSHOT project and parent versions.
+     * @param outputDirectory the build directory of the module owning the POM.
+     * @param versions the versions of the reactor modules, or null to only rewrite the project and parent versions.
+     * @param log where to report references to reactor modules left at their original version.
+     * @return the rewritten POM, or sourceFile itself if it already is a rewritten POM.
+     */
+    public static File get(File sourceFile, String version, File outputDirectory, ReactorVersions versions, Log log)
+            throws IOException, XmlPullParserException {
+        File cacheDir = new File(outputDirectory, CACHE_DIRECTORY).getAbsoluteFile();
+        if (cacheDir.equals(sourceFile.getAbsoluteFile().getParentFile()) || isRewritten(sourceFile)) {
+            return sourceFile; // already rewritten, the project file was swapped during validate
+        }
+        String key = sourceFile.getAbsolutePath() + "|" + version + "|" + cacheDir + "|"
+                + (versions == null ? "" : versions.getFingerprint());
+        File cachedFile = REWRITTEN.get(key);
+        if (cachedFile != null && cachedFile.isFile()) {
+            return cachedFile;
+        }
+        StampedCache.Stamps stamps = StampedCache.Stamps.of(sourceFile);
+        cachedFile = new File(cacheDir, PREFIX + digest(sourceFile, version, versions) + ".pom");
+        if (cachedFile.isFile()) {
+            REWRITTEN.put(key, cachedFile, stamps);
+            return cachedFile;
+        }
+
+        cacheDir.mkdirs();
+        File tmpFile = File.createTempFile(PREFIX, ".tmp", cacheDir);
+        try {
+            List<String> staleReferences;
+            if (isStreamable(sourceFile)) {
+                staleReferences = rewriteStream(sourceFile, tmpFile, version, versions);
+            } else {
+                staleReferences = rewriteModel(sourceFile, tmpFile, version, versions);
+            }
+            for (String staleReference : staleReferences) {
+                log.warn(staleReference + ", see " + sourceFile);
+            }
+            if (!tmpFile.renameTo(cachedFile) && !cachedFile.isFile()) {
+                throw new IOException("Unable to move " + tmpFile + " to " + cachedFile);
+            }
+        } finally {
+            tmpFile.delete();
+        }
+        REWRITTEN.put(key, cachedFile, stamps);
+        return cachedFile;
+    }
+
+    /**
+     * Points the project at its rewritten POM without moving the module. Where MavenProject keeps its own basedir,
+     * setFile() resets it to the directory of the file and the original is put back. Maven 3.0.x derives the basedir
+     * from the file instead, so there the rewritten POM is copied next to the source POM and deleted again when the
+     * session ends. Copies left behind by a build that was killed are removed by the next one.
+     */
+    public static void setProjectFile(MavenSession session, MavenProject prj, File pom) throws IOException,
+            IllegalAccessException {
+        File basedir = prj.getBasedir();
+        Field f = ReflectionUtils.getFieldByNameIncludingSuperclasses("basedir", MavenProject.class);
+        if (f == null) {
+            final File copy = copyTo(pom, basedir);
+            SessionEndListener.add(session, new Runnable() {
+                public void run() {
+                    copy.delete();
+                }
+            });
+            prj.setFile(copy);
+            return;
+        }
+        prj.setFile(pom);
+        f.setAccessible(true);
+        f.set(prj, basedir);
+    }
+
+    private static boolean isRewritten(File file) {
+        return file.getName().startsWith(PREFIX) && file.getName().endsWith(".pom");
+    }
+
+    private static File copyTo(File pom, File directory) throws IOException {
+        File target = new File(directory, pom.getName());
+        File[] files = directory.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            if (isRewritten(files[i]) && !files[i].equals(target)) {
+                files[i].delete(); // left behind by a build that did not reach the end of its session
+            }
+        }
+        if (target.isFile()) {
+            return target;
+        }
+        File tmpFile = File.createTempFile(PREFIX, ".tmp", directory);
+        try {
+            FileUtils.copyFile(pom, tmpFile);
+            if (!tmpFile.renameTo(target) && !target.isFile()) {
+                throw new IOException("Unable to move " + tmpFile + " to " + target);
+            }
+        } finally {
+            tmpFile.delete();
+        }
+        return target;
+    }
+
+    /**
+     * @return a digest of the POM's content, the version and the reactor versions, each part delimited so that no two
+     * combinations of them hash the same input.
+     */
+    private static String digest(File sourceFile, String version, ReactorVersions versions) throws IOException {
+        String content = new ChecksumEngine("sha1", 1).calculate(sourceFile).get("sha1");
+        return ChecksumEngine.calculate("sha1", content + "\n" + version + "\n"
+                + (versions == null ? "" : versions.getFingerprint()));
+    }
+
+    /**
+     * Streams the POM through the rewriter, and a second time when it found version properties to rewrite.
+     *
+     * @return the references to reactor modules left at their original version.
+     */
+    private static List<String> rewriteStream(File sourceFile, File targetFile, String version,
+            ReactorVersions versions) throws IOException {
+        PomVersionRewriter rewriter = new PomVersionRewriter(version, versions);
+        rewriteStream(sourceFile, targetFile, rewriter);
+        Map<String, String> propertyVersions = rewriter.getPropertyVersions();
+        if (!propertyVersions.isEmpty()) {
+            rewriter.setPropertyVersions(propertyVersions);
+            rewriteStream(sourceFile, targetFile, rewriter);
+        }
+        return rewriter.getStaleReferences();
+    }
+
+    private static void rewriteStream(File sourceFile, File targetFile, PomVersionRewriter rewriter)
+            throws IOException {
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(sourceFile));
+            out = new BufferedOutputStream(new FileOutputStream(targetFile));
+            rewriter.rewrite(in, out);
+        } finally {
+            IOUtil.close(in);
+            IOUtil.close(out);
+        }
+    }
+
+    private static boolean isStreamable(File sourceFile) throws IOException {
+        byte[] head = new byte[4];
+        InputStream in = new FileInputStream(sourceFile);
+        try {
+            return PomVersionRewriter.isSupported(head, in.read(head));
+        } finally {
+            IOUtil.close(in);
+        }
+    }
+
+    /**
+     * Rewrites the versions through a full model round trip, used for POMs in encodings the streaming rewriter does
+     * not support.
+     *
+     * @return the references to reactor modules left at their original version.
+     */
+    private static List<String> rewriteModel(File sourceFile, File targetFile, String version,
+            ReactorVersions versions) throws IOException, XmlPullParserException {
+        List<String> staleReferences = Collections.emptyList();
+        Reader reader = null;
+        Writer writer = null;
+        try {
+            reader = ReaderFactory.newXmlReader(sourceFile);
+            Model model = new MavenXpp3Reader().read(reader);
+
+            writer = WriterFactory.newXmlWriter(targetFile);
+            Parent parent = model.getParent();
+            String parentVersion = parent == null ? null : parent.getVersion();
+            if (versions != null) {
+                staleReferences = updateReferences(model, versions);
+            }
+            if (parent != null && parent.getVersion().equals(parentVersion) && parentVersion.endsWith("-SNAPSHOT")) {
+                parent.setVersion(version);
+            }
+            if (model.getVersion() != null && model.getVersion().endsWith("-SNAPSHOT")) {
+                model.setVersion(version);
+            }
+            new MavenXpp3Writer().write(writer, model);
+        } finally {
+            IOUtil.close(reader);
+            IOUtil.close(writer);
+        }
+        return staleReferences;
+    }
+
+    /**
+     * Updates the references of a model as read from its POM, and the properties that only feed references to reactor
+     * modules.
+     *
+     * @return the references to reactor modules left at their original version.
+     */
+    private static List<String> updateReferences(Model model, ReactorVersions versions) throws IOException {
+        PropertyVersions properties = new PropertyVersions(versions);
+        versions.updateReferences(model, properties);
+        for (String name : model.getProperties().stringPropertyNames()) {
+            properties.define(name, model.getProperties().getProperty(name), false);
+        }
+        for (Profile profile : model.getProfiles()) {
+            for (String name : profile.getProperties().stringPropertyNames()) {
+                properties.define(name, profile.getProperties().getProperty(name), true);
+            }
+        }
+        StringWriter content = new StringWriter();
+        new MavenXpp3Writer().write(content, model);
+        properties.occursIn(content.toString());
+        Map<String, String> propertyVersions = properties.getReplacements();
+        for (Map.Entry<String, String> property : propertyVersions.entrySet()) {
+            model.getProperties().setProperty(property.getKey(), property.getValue());
+        }
+        return properties.getStaleReferences(propertyVersions);
+    }
+}
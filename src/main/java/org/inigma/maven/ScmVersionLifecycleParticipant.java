@@ -0,0 +1,210 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.MavenExecutionException;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Extension;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.LogEnabled;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.repository.WorkspaceReader;
+
+/**
+ * Build extension entry point, active when the plugin is declared with
+ * <code>&lt;extensions&gt;true&lt;/extensions&gt;</code>. The reactor is versioned once right after the projects are
+ * read, before Maven resolves dependencies or runs any mojo, so everything downstream, <code>finalName</code>
+ * included, sees the SCM version from the start. Reactor lookups are translated by
+ * {@link ScmVersionWorkspaceReader} instead of rewriting the ReactorReader's fields, and the gitVersion goal becomes a
+ * no-op for the build.
+ * <p/>
+ * Configuration is read from the plugin's <code>&lt;configuration&gt;</code> in the top level project and can be
+ * overridden with the same user properties the gitVersion goal accepts.
+ */
+public class ScmVersionLifecycleParticipant extends AbstractMavenLifecycleParticipant implements LogEnabled {
+    public static final String PLUGIN_KEY = "org.inigma.maven:maven-scm-version-plugin";
+
+    private Logger logger;
+
+    public void enableLogging(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Only reached when installed as a core extension, see {@link GitPrefetch}.
+     */
+    @Override
+    public void afterSessionStart(MavenSession session) throws MavenExecutionException {
+        GitPrefetch.start(session, new DefaultLog(logger));
+    }
+
+    @Override
+    public void afterProjectsRead(MavenSession session) throws MavenExecutionException {
+        if (ReactorVersions.isAppliedByExtension(session) || !isBuildExtension(session)) {
+            return;
+        }
+        ReactorVersions versions = ReactorVersions.get(session);
+        synchronized (versions) {
+            if (versions.isApplied()) {
+                return;
+            }
+            Log log = new DefaultLog(logger);
+            MavenProject topLevel = session.getTopLevelProject();
+            String versionPattern = getConfiguration(session, topLevel, "versionPattern", "versionPattern",
+                    ReactorVersionResolver.DEFAULT_PATTERN);
+            if (!VersionTemplate.isPattern(versionPattern)) {
+                throw new MavenExecutionException("versionPattern must not be empty, leave it out to use "
+                        + ReactorVersionResolver.DEFAULT_PATTERN, topLevel.getFile());
+            }
+            ReactorVersionResolver resolver = new ReactorVersionResolver(log, versionPattern);
+            resolver.setCiMode(Boolean.parseBoolean(getConfiguration(session, topLevel, "ciMode",
+                    "scmVersion.ciMode", "false")));
+            resolver.setCiBranchVariables(getConfiguration(session, topLevel, "ciBranchVariables",
+                    "scmVersion.ciBranchVariables", ReactorVersionResolver.DEFAULT_CI_BRANCH_VARIABLES));
+            resolver.setManifest(new File(getConfiguration(session, topLevel, "manifest", "scmVersion.manifest",
+                    new File(session.getExecutionRootDirectory(), "target/scm-version.manifest").getPath())));
+            resolver.setWriteManifest(isResolveRequested(session));
+            resolver.setTimestampSource(getConfiguration(session, topLevel, "timestampSource",
+                    "scmVersion.timestampSource", ReactorVersionResolver.TIMESTAMP_SESSION));
+            resolver.setSessionTimestamp(session.getRequest().getStartTime());
+            PluginMetrics metrics = PluginMetrics.get(session, log);
+            resolver.setMetrics(metrics);
+
+            String provider = getConfiguration(session, topLevel, "scmProvider", "scmVersion.provider",
+                    JGitVersionProvider.NAME);
+            if (!GitContext.isProvider(provider)) {
+                throw new MavenExecutionException("Unknown scmProvider " + provider + ", expected jgit, git or auto",
+                        topLevel.getFile());
+            }
+            GitContext gitContext = GitContext.get(session);
+            gitContext.setProvider(provider);
+            GitPrefetch.join(session, gitContext, Long.parseLong(getConfiguration(session, topLevel,
+                    "prefetchTimeout", "scmVersion.prefetchTimeout", String.valueOf(GitPrefetch.DEFAULT_TIMEOUT))),
+                    log);
+            List<MavenProject> altered;
+            try {
+                altered = resolver.resolve(session.getProjects(), versions, gitContext);
+            } finally {
+                gitContext.close();
+            }
+
+            for (MavenProject prj : altered) {
+                String originalVersion = versions.getOriginalVersion(prj.getGroupId(), prj.getArtifactId());
+                updateFinalName(prj.getBuild(), originalVersion, prj.getVersion());
+                long start = metrics.start();
+                try {
+                    File buildDir = new File(prj.getBuild().getDirectory());
+                    RewrittenPoms.setProjectFile(session, prj, RewrittenPoms.get(prj.getFile(), prj.getVersion(),
+                            buildDir, versions, log));
+                } catch (IOException e) {
+                    throw new MavenExecutionException("Unable to read pom file " + prj.getFile(), e);
+                } catch (XmlPullParserException e) {
+                    throw new MavenExecutionException("Unable to understand pom file " + prj.getFile(), e);
+                } catch (IllegalAccessException e) {
+                    throw new MavenExecutionException("Unable to swap pom file of " + prj, e);
+                } finally {
+                    metrics.record(PluginMetrics.POM_REWRITE, start);
+                }
+            }
+
+            if (!altered.isEmpty()) {
+                registerWorkspaceReader(session.getRepositorySession(), versions, log);
+            }
+            versions.setApplied(true);
+            ReactorVersions.setAppliedByExtension(session);
+        }
+    }
+
+    /**
+     * The session is a DefaultRepositorySystemSession from Maven's own realm, which is not the copy visible to this
+     * extension, so the setter is looked up on the session's class rather than through a cast.
+     */
+    private void registerWorkspaceReader(RepositorySystemSession repositorySession, ReactorVersions versions,
+            Log log) {
+        try {
+            Method setter = repositorySession.getClass().getMethod("setWorkspaceReader", WorkspaceReader.class);
+            setter.invoke(repositorySession, new ScmVersionWorkspaceReader(repositorySession.getWorkspaceReader(),
+                    versions));
+        } catch (Exception e) {
+            log.warn("Unable to register the SCM version workspace reader, reactor lookups may fail", e);
+        }
+    }
+
+    private void updateFinalName(Build build, String originalVersion, String finalVersion) {
+        String finalName = build.getFinalName();
+        if (finalName == null) {
+            return;
+        }
+        finalName = finalName.replace("${scmVersion}", finalVersion);
+        if (finalName.endsWith(originalVersion)) {
+            finalName = finalName.substring(0, finalName.length() - originalVersion.length()) + finalVersion;
+        }
+        build.setFinalName(finalName);
+    }
+
+    /**
+     * A core extension only prefetches, the reactor is versioned by the extension when a project declares it as a
+     * build extension and by the gitVersion goal otherwise.
+     */
+    private boolean isBuildExtension(MavenSession session) {
+        for (MavenProject prj : session.getProjects()) {
+            Plugin plugin = prj.getPlugin(PLUGIN_KEY);
+            if (plugin != null && plugin.isExtensions()) {
+                return true;
+            }
+            for (Extension extension : prj.getBuildExtensions()) {
+                if (PLUGIN_KEY.equals(extension.getGroupId() + ":" + extension.getArtifactId())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The reactor is versioned before any goal runs, so the manifest the resolve goal stands for is written here.
+     */
+    private boolean isResolveRequested(MavenSession session) {
+        return isGoalRequested(session, "resolve");
+    }
+
+    /**
+     * @return true if the goal of this plugin was given on the command line, by prefix or by plugin key.
+     */
+    static boolean isGoalRequested(MavenSession session, String goal) {
+        for (String task : session.getGoals()) {
+            if (task.endsWith(":" + goal)
+                    && (task.startsWith("scm-version:") || task.startsWith(PLUGIN_KEY + ":"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String getConfiguration(MavenSession session, MavenProject project, String name, String property,
+            String defaultValue) {
+        String value = session.getUserProperties().getProperty(property);
+        if (value != null) {
+            return value;
+        }
+        Plugin plugin = project.getPlugin(PLUGIN_KEY);
+        if (plugin != null && plugin.getConfiguration() instanceof Xpp3Dom) {
+            Xpp3Dom child = ((Xpp3Dom) plugin.getConfiguration()).getChild(name);
+            if (child != null && child.getValue() != null) {
+                return child.getValue().trim();
+            }
+        }
+        return defaultValue;
+    }
+}
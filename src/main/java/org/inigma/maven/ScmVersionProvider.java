@@ -0,0 +1,38 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Backend answering the git questions versioning asks. {@link GitContext} caches the answers per build and across
+ * builds and only asks the provider what it could not read from the git directory itself, so implementations do not
+ * cache anything beyond the handles they need.
+ */
+public interface ScmVersionProvider {
+    /**
+     * @return the name the provider is selected by.
+     */
+    String getName();
+
+    /**
+     * @param gitDir the git directory holding HEAD.
+     * @param commonDir the directory holding the objects and shared refs, the same as gitDir unless it is a worktree.
+     */
+    GitHead getHead(File gitDir, File commonDir) throws IOException;
+
+    /**
+     * @return the description of the commit, see {@link GitDescription}.
+     */
+    GitDescription describe(File gitDir, File commonDir, String objectId) throws IOException;
+
+    /**
+     * @return the committer time of the commit.
+     */
+    Date getCommitTime(File gitDir, File commonDir, String objectId) throws IOException;
+
+    /**
+     * Releases whatever the provider keeps open. The provider stays usable and reopens it on demand.
+     */
+    void close();
+}
@@ -0,0 +1,40 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.util.List;
+
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.repository.WorkspaceReader;
+import org.sonatype.aether.repository.WorkspaceRepository;
+
+/**
+ * Lets the reactor resolve projects by their SCM version. Requests for an altered project at its new version are
+ * translated back to the version the reactor was built with before being handed to the wrapped reader, so the
+ * reactor's own bookkeeping never needs to be touched.
+ */
+public class ScmVersionWorkspaceReader implements WorkspaceReader {
+    private final WorkspaceReader delegate;
+    private final ReactorVersions versions;
+
+    public ScmVersionWorkspaceReader(WorkspaceReader delegate, ReactorVersions versions) {
+        this.delegate = delegate;
+        this.versions = versions;
+    }
+
+    public WorkspaceRepository getRepository() {
+        return delegate.getRepository();
+    }
+
+    public File findArtifact(Artifact artifact) {
+        String finalVersion = versions.getFinalVersion(artifact.getGroupId(), artifact.getArtifactId());
+        if (finalVersion != null && finalVersion.equals(artifact.getBaseVersion())) {
+            artifact = artifact.setVersion(versions.getOriginalVersion(artifact.getGroupId(),
+                    artifact.getArtifactId()));
+        }
+        return delegate.findArtifact(artifact);
+    }
+
+    public List<String> findVersions(Artifact artifact) {
+        return delegate.findVersions(artifact);
+    }
+}
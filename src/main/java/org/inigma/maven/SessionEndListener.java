@@ -0,0 +1,169 @@
+package org.inigma.maven;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.sonatype.aether.SessionData;
+
+/**
+ * Runs tasks once the session ends, after every project was built or skipped, by taking the place of the execution
+ * listener of the request and passing every event on to the listener it replaced. Tasks run in the order they were
+ * added, and a failing task does not keep the ones after it from running.
+ * <p/>
+ * The build extension and the plugin goals run in separate class realms, so each realm installs its own listener and
+ * only runs the tasks added from within it.
+ */
+public class SessionEndListener implements ExecutionListener {
+    private static final String SESSION_KEY = ReactorVersions.sessionKey(SessionEndListener.class);
+
+    private final ExecutionListener delegate;
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    private SessionEndListener(ExecutionListener delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Adds a task to run when the session ends, installing the listener on first use.
+     */
+    public static void add(MavenSession session, Runnable task) {
+        SessionData data = session.getRepositorySession().getData();
+        SessionEndListener listener = (SessionEndListener) data.get(SESSION_KEY);
+        if (listener == null) {
+            MavenExecutionRequest request = session.getRequest();
+            synchronized (request) {
+                listener = (SessionEndListener) data.get(SESSION_KEY);
+                if (listener == null) {
+                    listener = new SessionEndListener(request.getExecutionListener());
+                    request.setExecutionListener(listener);
+                    data.set(SESSION_KEY, listener);
+                }
+            }
+        }
+        synchronized (listener.tasks) {
+            listener.tasks.add(task);
+        }
+    }
+
+    public void sessionEnded(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.sessionEnded(event);
+        }
+        List<Runnable> pending;
+        synchronized (tasks) {
+            pending = new ArrayList<Runnable>(tasks);
+            tasks.clear();
+        }
+        RuntimeException failure = null;
+        for (Runnable task : pending) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public void projectDiscoveryStarted(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectDiscoveryStarted(event);
+        }
+    }
+
+    public void sessionStarted(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.sessionStarted(event);
+        }
+    }
+
+    public void projectSkipped(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectSkipped(event);
+        }
+    }
+
+    public void projectStarted(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectStarted(event);
+        }
+    }
+
+    public void projectSucceeded(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectSucceeded(event);
+        }
+    }
+
+    public void projectFailed(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.projectFailed(event);
+        }
+    }
+
+    public void mojoSkipped(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.mojoSkipped(event);
+        }
+    }
+
+    public void mojoStarted(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.mojoStarted(event);
+        }
+    }
+
+    public void mojoSucceeded(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.mojoSucceeded(event);
+        }
+    }
+
+    public void mojoFailed(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.mojoFailed(event);
+        }
+    }
+
+    public void forkStarted(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkStarted(event);
+        }
+    }
+
+    public void forkSucceeded(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkSucceeded(event);
+        }
+    }
+
+    public void forkFailed(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkFailed(event);
+        }
+    }
+
+    public void forkedProjectStarted(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkedProjectStarted(event);
+        }
+    }
+
+    public void forkedProjectSucceeded(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkedProjectSucceeded(event);
+        }
+    }
+
+    public void forkedProjectFailed(ExecutionEvent event) {
+        if (delegate != null) {
+            delegate.forkedProjectFailed(event);
+        }
+    }
+}
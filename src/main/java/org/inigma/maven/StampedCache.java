@@ -0,0 +1,127 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded, JVM wide cache whose entries stay valid for as long as the files they were derived from keep their
+ * modification time and size. Long lived JVMs such as build daemons reuse git lookups and rewritten POMs across builds
+ * this way, checking a few file attributes instead of repeating the work. The least recently used entry is evicted once
+ * the cache is full.
+ * <p/>
+ * Entries derived from a file modified within the last two seconds are not kept: a further change within the
+ * timestamp granularity of the file system could leave modification time and size as they were, the same racy case
+ * git guards its index against.
+ */
+public class StampedCache<K, V> {
+    private static final long RACY_MILLIS = 2000;
+
+    private final Map<K, Entry<V>> entries;
+    private int hits;
+    private int misses;
+
+    public StampedCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value or null if there is none or a file it was derived from changed since.
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && !entry.stamps.isCurrent()) {
+            entries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Caches the value unless one of the files it was derived from was modified too recently to be trusted.
+     *
+     * @param stamps the state of the files the value was derived from, taken before deriving it.
+     */
+    public synchronized void put(K key, V value, Stamps stamps) {
+        if (stamps.isRacy()) {
+            entries.remove(key);
+        } else {
+            entries.put(key, new Entry<V>(value, stamps));
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StampedCache[size=" + entries.size() + ", hits=" + hits + ", misses=" + misses + "]";
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final Stamps stamps;
+
+        Entry(V value, Stamps stamps) {
+            this.value = value;
+            this.stamps = stamps;
+        }
+    }
+
+    /**
+     * Modification time and size of a set of files, missing files included.
+     */
+    public static class Stamps {
+        private final File[] files;
+        private final long[] modified;
+        private final long[] lengths;
+        private final long taken = System.currentTimeMillis();
+
+        private Stamps(File[] files) {
+            this.files = files;
+            this.modified = new long[files.length];
+            this.lengths = new long[files.length];
+            for (int i = 0; i < files.length; i++) {
+                modified[i] = files[i].lastModified();
+                lengths[i] = files[i].length();
+            }
+        }
+
+        public static Stamps of(File... files) {
+            return new Stamps(files);
+        }
+
+        boolean isCurrent() {
+            for (int i = 0; i < files.length; i++) {
+                if (files[i].lastModified() != modified[i] || files[i].length() != lengths[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isRacy() {
+            for (long time : modified) {
+                if (time > taken - RACY_MILLIS) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -1,17 +1,31 @@
 package org.inigma.maven;
 
+import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 public class VersionInformation {
+    private static final ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            // 24 hour clock in UTC, so a given timestamp renders the same on every machine and versions sort by time
+            DateFormat format = new SimpleDateFormat("yyyy.MM.dd.HH.mm.ss");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format;
+        }
+    };
+
     private String branchName;
+    private String commit;
+    private GitDescription description;
     private String version;
     private boolean snapshot;
     private Date timestamp = new Date();
-    private String pattern;
+    private final VersionTemplate template;
 
     public VersionInformation(String pattern) {
-        this.pattern = pattern;
+        this.template = VersionTemplate.compile(pattern);
     }
 
     public void setTimestamp(Date timestamp) {
@@ -22,6 +36,14 @@ public class VersionInformation {
         this.branchName = branchName;
     }
 
+    public void setCommit(String commit) {
+        this.commit = commit;
+    }
+
+    public void setDescription(GitDescription description) {
+        this.description = description;
+    }
+
     public void setSnapshot(boolean snapshot) {
         this.snapshot = snapshot;
     }
@@ -34,6 +56,32 @@ public class VersionInformation {
         this.version = version;
     }
 
+    public VersionTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * @return the value substituted for <code>${scmVersion.&lt;name&gt;}</code> or null if the variable is unknown.
+     */
+    public String getVariable(String name) {
+        if (VersionTemplate.NUMBER.equals(name)) {
+            return version;
+        } else if (VersionTemplate.BRANCH.equals(name)) {
+            return branchName;
+        } else if (VersionTemplate.DATE.equals(name)) {
+            return DATE_FORMAT.get().format(timestamp);
+        } else if (VersionTemplate.COMMIT.equals(name)) {
+            return commit;
+        } else if (VersionTemplate.SHORT_COMMIT.equals(name)) {
+            return commit == null ? null : GitDescription.abbreviate(commit);
+        } else if (VersionTemplate.DISTANCE.equals(name)) {
+            return description == null ? null : String.valueOf(description.getDistance());
+        } else if (VersionTemplate.DESCRIBE.equals(name)) {
+            return description == null ? null : description.getDescribe();
+        }
+        return null;
+    }
+
     public String getFinalVersion() {
         if (!snapshot) {
             return version;
@@ -41,10 +89,6 @@ public class VersionInformation {
             return version + "-SNAPSHOT";
         }
 
-        String snapshotVersion = pattern.replaceAll("\\$\\{scmVersion\\.number\\}", version);
-        snapshotVersion = snapshotVersion.replaceAll("\\$\\{scmVersion\\.branch\\}", branchName);
-        SimpleDateFormat sdf = new SimpleDateFormat("yyyy.MM.dd.hh.mm.ss");
-        snapshotVersion = snapshotVersion.replaceAll("\\$\\{scmVersion\\.date\\}", sdf.format(timestamp));
-        return snapshotVersion;
+        return template.render(this);
     }
 }
@@ -0,0 +1,131 @@
+package org.inigma.maven;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * The versions of a reactor as resolved for one HEAD and version pattern, written by the resolve goal so that later
+ * builds of the same commit, such as the other stages of a CI pipeline, apply them without resolving the pattern or
+ * walking the history again. A manifest only applies while HEAD points at the same commit and ref and the pattern is
+ * unchanged, which is checked with a few file reads.
+ */
+public class VersionManifest {
+    private static final String HEAD = "head";
+    private static final String REF = "ref";
+    private static final String PATTERN = "pattern";
+    private static final String MODULE_PREFIX = "module.";
+
+    private final String head;
+    private final String ref;
+    private final String pattern;
+    private final Map<String, String[]> modules = new HashMap<String, String[]>();
+
+    private VersionManifest(String head, String ref, String pattern) {
+        this.head = head;
+        this.ref = ref;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Records the original and final version of every project, the final version being the current one.
+     */
+    public static VersionManifest create(GitHead head, String pattern, List<MavenProject> projects,
+            ReactorVersions versions) {
+        VersionManifest manifest = new VersionManifest(head.getObjectId(), head.getRefName(), pattern);
+        for (MavenProject prj : projects) {
+            String originalVersion = versions.getOriginalVersion(prj.getGroupId(), prj.getArtifactId());
+            manifest.modules.put(key(prj), new String[] {
+                    originalVersion == null ? prj.getVersion() : originalVersion, prj.getVersion()});
+        }
+        return manifest;
+    }
+
+    /**
+     * @return the manifest or null if the file is missing or unreadable.
+     */
+    public static VersionManifest read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            IOUtil.close(in);
+        }
+        VersionManifest manifest = new VersionManifest(properties.getProperty(HEAD), properties.getProperty(REF),
+                properties.getProperty(PATTERN));
+        for (String name : properties.stringPropertyNames()) {
+            String[] values = properties.getProperty(name).trim().split("\\s+");
+            if (name.startsWith(MODULE_PREFIX) && values.length == 2) {
+                manifest.modules.put(name.substring(MODULE_PREFIX.length()), values);
+            }
+        }
+        return manifest.head == null || manifest.pattern == null ? null : manifest;
+    }
+
+    public void write(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(HEAD, head);
+        if (ref != null) {
+            properties.setProperty(REF, ref);
+        }
+        properties.setProperty(PATTERN, pattern);
+        for (Map.Entry<String, String[]> module : modules.entrySet()) {
+            properties.setProperty(MODULE_PREFIX + module.getKey(), module.getValue()[0] + " "
+                    + module.getValue()[1]);
+        }
+
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            properties.store(out, "maven-scm-version-plugin version manifest");
+        } finally {
+            IOUtil.close(out);
+        }
+        if (!tmpFile.renameTo(file)) {
+            file.delete();
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Unable to move " + tmpFile + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * @return true if the manifest was resolved for the given HEAD and pattern.
+     */
+    public boolean matches(GitHead current, String currentPattern) {
+        if (current == null || !head.equals(current.getObjectId()) || !pattern.equals(currentPattern)) {
+            return false;
+        }
+        return ref == null ? current.getRefName() == null : ref.equals(current.getRefName());
+    }
+
+    /**
+     * @return the final version of the project or null if the manifest does not cover it at its current version.
+     */
+    public String getFinalVersion(MavenProject prj) {
+        String[] module = modules.get(key(prj));
+        return module != null && module[0].equals(prj.getVersion()) ? module[1] : null;
+    }
+
+    private static String key(MavenProject prj) {
+        return prj.getGroupId() + ":" + prj.getArtifactId();
+    }
+}
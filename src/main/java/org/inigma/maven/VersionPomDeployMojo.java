@@ -1,24 +1,33 @@
 package org.inigma.maven;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.maven.RepositoryUtils;
 import org.apache.maven.artifact.Artifact;
-import org.apache.maven.artifact.deployer.ArtifactDeployer;
-import org.apache.maven.artifact.deployer.ArtifactDeploymentException;
-import org.apache.maven.artifact.metadata.ArtifactMetadata;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.repository.ArtifactRepositoryFactory;
 import org.apache.maven.artifact.repository.layout.ArtifactRepositoryLayout;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
-import org.apache.maven.project.artifact.ProjectArtifactMetadata;
+import org.apache.maven.repository.legacy.WagonManager;
+import org.sonatype.aether.RepositorySystem;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.deployment.DeploymentException;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.artifact.SubArtifact;
 
 /**
- * Deploys an artifact to remote repository.
+ * Deploys an artifact to remote repository. The main artifact, its rewritten POM and the attached artifacts are
+ * uploaded together, so this replaces the standard deploy plugin, which should be configured with
+ * <code>&lt;skip&gt;true&lt;/skip&gt;</code>.
  *
  * @author <a href="mailto:sejal.patel@stratixcorp.com">Sejal Patel</a>
  * @goal pomDeploy
@@ -69,10 +78,6 @@ public class VersionPomDeployMojo extends AbstractVersionPomMojo {
      * @component role="org.apache.maven.artifact.repository.layout.ArtifactRepositoryLayout"
      */
     private Map repositoryLayouts;
-    /**
-     * @component
-     */
-    private ArtifactDeployer deployer;
     /**
      * Parameter used to control how many times a failed deployment will be retried before giving up and failing.
      * If a value outside the range 1-10 is specified it will be pulled to the nearest value within the range 1-10.
@@ -81,10 +86,65 @@ public class VersionPomDeployMojo extends AbstractVersionPomMojo {
      * @since 2.7
      */
     private int retryFailedDeploymentCount;
+    /**
+     * Delay in milliseconds before the first retry of a failed deployment. The delay doubles with every further
+     * retry, up to retryMaxDelay, and is randomized by up to half to spread out retries of concurrent uploads.
+     *
+     * @parameter expression="${retryInitialDelay}" default-value="1000"
+     */
+    private long retryInitialDelay;
+    /**
+     * Upper bound in milliseconds of the delay between two deployment attempts.
+     *
+     * @parameter expression="${retryMaxDelay}" default-value="30000"
+     */
+    private long retryMaxDelay;
+    /**
+     * Time in milliseconds after which a failing deployment is no longer retried, regardless of
+     * retryFailedDeploymentCount. Client errors such as 401, 403 or 404 are never retried.
+     *
+     * @parameter expression="${retryBudget}" default-value="300000"
+     */
+    private long retryBudget;
+    /**
+     * Defer deployment to the end of the reactor. Every module queues its rewritten POM, main artifact and attached
+     * artifacts, and the last module uploads everything with one request per repository. Repository metadata is only
+     * uploaded after all artifacts of a repository succeeded, and nothing is uploaded when the build fails earlier.
+     * Modules skipped with maven.deploy.skip still take part in the count, queueing nothing.
+     *
+     * @parameter expression="${deployAtEnd}" default-value="false"
+     */
+    private boolean deployAtEnd;
+    /**
+     * The maximum number of concurrent uploads to a single repository.
+     *
+     * @parameter expression="${deployThreads}" default-value="5"
+     */
+    private int deployThreads;
+    /**
+     * Compare every file with the SHA-1 sidecar already published in the deployment repository and skip the upload
+     * when the bytes are identical, as when CI rebuilds a commit that was deployed before. Files of a SNAPSHOT module
+     * are only skipped when all of them are unchanged, so the snapshot metadata never points at a partial upload.
+     *
+     * @parameter expression="${skipUnchanged}" default-value="false"
+     */
+    private boolean skipUnchanged;
+    /**
+     * @component
+     */
+    private WagonManager wagonManager;
+    /**
+     * @component
+     */
+    private RepositorySystem repositorySystem;
 
     public void execute() throws MojoExecutionException, MojoFailureException {
         if (skip) {
             getLog().info("Skipping artifact deployment");
+            if (deployAtEnd) {
+                // the module still counts towards the reactor and may be the last one to complete it
+                deploy(enqueue(new ArrayList<BatchDeployer.Item>()));
+            }
             return;
         }
 
@@ -100,64 +160,130 @@ public class VersionPomDeployMojo extends AbstractVersionPomMojo {
             }
         }
 
-        // Deploy the POM
-        boolean isPomArtifact = "pom".equals(packaging);
-        if (!isPomArtifact) {
-            ArtifactMetadata metadata = new ProjectArtifactMetadata(artifact, pomFile);
-            artifact.addMetadata(metadata);
-        }
-
         if (updateReleaseInfo) {
             artifact.setRelease(true);
         }
 
-        try {
-            File pomFile = getPomFile(); // need the translated version of the pom file
-            if (isPomArtifact) {
-                deploy(pomFile, artifact, repo, localRepository);
-            } else {
-                Artifact pomArtifact = artifactFactory.createProjectArtifact(artifact.getGroupId(),
-                        artifact.getArtifactId(), artifact.getBaseVersion());
-                pomArtifact.setFile(pomFile);
-                if (updateReleaseInfo) {
-                    pomArtifact.setRelease(true);
-                }
-
-                deploy(pomFile, pomArtifact, repo, localRepository);
+        List<BatchDeployer.Item> items = getDeployItems(repo);
+        if (skipUnchanged && isUnchanged(newRemoteChecksums(repo), items)) {
+            long bytes = 0;
+            for (BatchDeployer.Item item : items) {
+                bytes += item.getArtifact().getFile().length();
             }
-            pomFile.delete();
-        } catch (ArtifactDeploymentException e) {
+            getLog().info("Skipping " + items.size() + " unchanged artifacts of " + project.getId() + " (" + bytes
+                    + " bytes)");
+            items.clear();
+        }
+
+        deploy(deployAtEnd ? enqueue(items) : items);
+    }
+
+    /**
+     * Queues the items of the module for the end of the build.
+     *
+     * @return everything the reactor queued if this module completes it, otherwise nothing.
+     */
+    private List<BatchDeployer.Item> enqueue(List<BatchDeployer.Item> items) {
+        ReactorQueue<BatchDeployer.Item> queue = ReactorQueue.get(session, "pomDeploy", getLog());
+        List<BatchDeployer.Item> queued = queue.add(project, items);
+        if (queued == null) {
+            if (!items.isEmpty()) {
+                getLog().info("Deploying " + project.getId() + " at the end of the build");
+            }
+            return Collections.emptyList();
+        }
+        return queued;
+    }
+
+    private void deploy(List<BatchDeployer.Item> items) throws MojoExecutionException {
+        if (items.isEmpty()) {
+            return;
+        }
+        BatchDeployer deployer = new BatchDeployer(repositorySystem, session.getRepositorySession(), getLog());
+        deployer.setThreads(deployThreads);
+        deployer.setRetryPolicy(getRetryPolicy());
+        try {
+            deployer.deploy(items);
+        } catch (DeploymentException e) {
             throw new MojoExecutionException(e.getMessage(), e);
         }
     }
 
-    private void deploy(File source, Artifact artifact, ArtifactRepository deploymentRepository,
-            ArtifactRepository localRepository) throws ArtifactDeploymentException {
-        int retryFailedDeploymentCount = Math.max(1, Math.min(10, this.retryFailedDeploymentCount));
-        ArtifactDeploymentException exception = null;
-        for (int count = 0; count < retryFailedDeploymentCount; count++) {
-            try {
-                if (count > 0) {
-                    getLog().info("Retrying deployment attempt " + (count + 1) + " of " + retryFailedDeploymentCount);
-                }
-                deployer.deploy(source, artifact, deploymentRepository, localRepository);
-                exception = null;
-                break;
-            } catch (ArtifactDeploymentException e) {
-                if (count + 1 < retryFailedDeploymentCount) {
-                    getLog().warn("Encountered issue during deployment: " + e.getLocalizedMessage());
-                    getLog().debug(e);
-                }
-                if (exception == null) {
-                    exception = e;
-                }
+    /**
+     * Lists the files of the module to deploy: the rewritten POM, as the POM of the main artifact, the main artifact
+     * and the attached artifacts. Deployed as one request, each POM is uploaded exactly once.
+     */
+    private List<BatchDeployer.Item> getDeployItems(ArtifactRepository repo) {
+        RepositorySystemSession repositorySession = session.getRepositorySession();
+        RemoteRepository remote = RepositoryUtils.toRepo(repo);
+        if (remote.getAuthentication() == null) {
+            remote.setAuthentication(repositorySession.getAuthenticationSelector().getAuthentication(remote));
+        }
+        if (remote.getProxy() == null) {
+            remote.setProxy(repositorySession.getProxySelector().getProxy(remote));
+        }
+
+        List<BatchDeployer.Item> items = new ArrayList<BatchDeployer.Item>();
+        File pomFile = getPomFile(); // need the translated version of the pom file
+        org.sonatype.aether.artifact.Artifact main = RepositoryUtils.toArtifact(artifact);
+        if ("pom".equals(packaging)) {
+            items.add(new BatchDeployer.Item(main.setFile(pomFile), remote));
+        } else {
+            items.add(new BatchDeployer.Item(new SubArtifact(main, "", "pom").setFile(pomFile), remote));
+            if (artifact.getFile() != null && artifact.getFile().isFile()) {
+                items.add(new BatchDeployer.Item(main.setFile(artifact.getFile()), remote));
+            }
+        }
+        for (Artifact attached : project.getAttachedArtifacts()) {
+            if (attached.getFile() != null) {
+                items.add(new BatchDeployer.Item(RepositoryUtils.toArtifact(attached), remote));
+            }
+        }
+        return items;
+    }
+
+    private RemoteChecksums newRemoteChecksums(ArtifactRepository repo) {
+        return new RemoteChecksums(wagonManager, repo, new File(buildDirectory, RewrittenPoms.CACHE_DIRECTORY),
+                getLog());
+    }
+
+    private boolean isUnchanged(RemoteChecksums remoteChecksums, List<BatchDeployer.Item> items)
+            throws MojoExecutionException {
+        for (BatchDeployer.Item item : items) {
+            org.sonatype.aether.artifact.Artifact a = item.getArtifact();
+            if (!isUnchanged(remoteChecksums, a.getFile(), a.getGroupId(), a.getArtifactId(), a.getBaseVersion(),
+                    a.getClassifier(), a.getExtension())) {
+                return false;
             }
         }
-        if (exception != null) {
-            throw exception;
+        return true;
+    }
+
+    private boolean isUnchanged(RemoteChecksums remoteChecksums, File file, String groupId, String artifactId,
+            String baseVersion, String classifier, String extension) throws MojoExecutionException {
+        String remote = remoteChecksums.getSha1(groupId, artifactId, baseVersion, classifier, extension);
+        if (remote == null) {
+            return false;
+        }
+        try {
+            String local = new ChecksumEngine("sha1", 1).calculate(file).get("sha1");
+            getLog().debug(file + " has SHA-1 " + local + ", remote has " + remote);
+            return local.equals(remote);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to calculate the SHA-1 of " + file, e);
         }
     }
 
+    private RetryPolicy getRetryPolicy() {
+        RetryPolicy retryPolicy = new RetryPolicy(getLog());
+        retryPolicy.setAttempts(Math.max(1, Math.min(10, retryFailedDeploymentCount)));
+        retryPolicy.setInitialDelay(retryInitialDelay);
+        retryPolicy.setMaxDelay(retryMaxDelay);
+        retryPolicy.setBudget(retryBudget);
+        retryPolicy.setMetrics(getMetrics());
+        return retryPolicy;
+    }
+
     private void failIfOffline() throws MojoFailureException {
         if (offline) {
             throw new MojoFailureException("Cannot deploy artifacts when Maven is in offline mode");
@@ -2,15 +2,23 @@ package org.inigma.maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.installer.ArtifactInstallationException;
 import org.apache.maven.artifact.installer.ArtifactInstaller;
 import org.apache.maven.artifact.metadata.ArtifactMetadata;
 import org.apache.maven.plugin.MojoExecutionException;
-import org.codehaus.plexus.digest.Digester;
-import org.codehaus.plexus.digest.DigesterException;
+import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.util.FileUtils;
 
 /**
@@ -19,6 +27,7 @@ import org.codehaus.plexus.util.FileUtils;
  * @author <a href="mailto:sejal.patel@stratixcorp.com">Sejal Patel</a>
  * @goal pomInstall
  * @phase install
+ * @threadSafe
  * @since 11/16/13 12:32 PM
  */
 public class VersionPomInstallMojo extends AbstractVersionPomMojo {
@@ -27,24 +36,47 @@ public class VersionPomInstallMojo extends AbstractVersionPomMojo {
      */
     protected ArtifactInstaller installer;
     /**
-     * Flag whether to create checksums (MD5, SHA-1) or not.
+     * Flag whether to create checksums (MD5, SHA-1 by default, see checksumAlgorithms) or not.
      *
      * @parameter expression="${createChecksum}" default-value="false"
      * @since 2.2
      */
     protected boolean createChecksum;
     /**
-     * Digester for MD5.
+     * Comma separated checksums to create when createChecksum is set, any of md5, sha1, sha256 and sha512. Each file
+     * is read once regardless of how many are listed.
      *
-     * @component role-hint="md5"
+     * @parameter expression="${checksumAlgorithms}" default-value="md5,sha1"
      */
-    protected Digester md5Digester;
+    protected String checksumAlgorithms;
     /**
-     * Digester for SHA-1.
+     * The maximum number of files checksummed concurrently.
      *
-     * @component role-hint="sha1"
+     * @parameter expression="${checksumThreads}" default-value="4"
      */
-    protected Digester sha1Digester;
+    protected int checksumThreads;
+
+    /**
+     * Defer installation to the end of the reactor. Every module queues its rewritten POM, main artifact and attached
+     * artifacts, and the last module installs everything, so a failed build leaves the local repository untouched.
+     * Since this installs the main and attached artifacts as well, combine it with
+     * <code>-Dmaven.install.skip=true</code>.
+     *
+     * @parameter expression="${installAtEnd}" default-value="false"
+     */
+    protected boolean installAtEnd;
+    /**
+     * The maximum number of artifact directories written concurrently when installAtEnd is set.
+     *
+     * @parameter expression="${installThreads}" default-value="4"
+     */
+    protected int installThreads;
+    /**
+     * @parameter default-value="${project}"
+     * @required
+     * @readonly
+     */
+    protected MavenProject project;
 
     public void execute() throws MojoExecutionException {
         boolean isPomArtifact = "pom".equals(packaging);
@@ -53,26 +85,123 @@ public class VersionPomInstallMojo extends AbstractVersionPomMojo {
             artifact.setRelease(true);
         }
 
+        File pomFile = getPomFile(); // need the translated version of the pom file
+        Artifact pomArtifact = artifact;
+        if (!isPomArtifact) {
+            pomArtifact = artifactFactory.createProjectArtifact(artifact.getGroupId(), artifact.getArtifactId(),
+                    artifact.getBaseVersion());
+            pomArtifact.setFile(pomFile);
+            if (updateReleaseInfo) {
+                pomArtifact.setRelease(true);
+            }
+        }
+
+        if (!installAtEnd) {
+            long start = getMetrics().start();
+            try {
+                installer.install(pomFile, pomArtifact, localRepository);
+            } catch (ArtifactInstallationException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            } finally {
+                getMetrics().record(PluginMetrics.INSTALL, start);
+            }
+            installChecksums(pomArtifact);
+            return;
+        }
+
+        List<InstallRequest> requests = new ArrayList<InstallRequest>();
+        requests.add(new InstallRequest(pomFile, pomArtifact));
+        if (!isPomArtifact && artifact.getFile() != null && artifact.getFile().isFile()) {
+            requests.add(new InstallRequest(artifact.getFile(), artifact));
+        }
+        for (Artifact attached : project.getAttachedArtifacts()) {
+            if (attached.getFile() != null) {
+                requests.add(new InstallRequest(attached.getFile(), attached));
+            }
+        }
+        ReactorQueue<InstallRequest> queue = ReactorQueue.get(session, "pomInstall", getLog());
+        List<InstallRequest> queued = queue.add(project, requests);
+        if (queued == null) {
+            getLog().info("Installing " + project.getId() + " at the end of the build");
+            return;
+        }
+        installAll(queued, getMetrics());
+    }
+
+    /**
+     * Installs the queued requests of the whole reactor. Requests are grouped by artifact directory and each group is
+     * written by a single worker, every file copied to a temporary name next to its destination and renamed into
+     * place. The installer is then only left to record the artifact in the repository metadata, as it skips copying
+     * artifacts that are already in place.
+     */
+    private void installAll(List<InstallRequest> requests, final PluginMetrics metrics)
+            throws MojoExecutionException {
+        Map<File, List<InstallRequest>> groups = new LinkedHashMap<File, List<InstallRequest>>();
+        for (InstallRequest request : requests) {
+            File directory = getLocalRepoFile(request.artifact).getParentFile().getParentFile();
+            List<InstallRequest> group = groups.get(directory);
+            if (group == null) {
+                group = new ArrayList<InstallRequest>();
+                groups.put(directory, group);
+            }
+            group.add(request);
+        }
+        getLog().info("Installing " + requests.size() + " files for " + groups.size() + " artifacts");
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(installThreads, groups.size())));
         try {
-            File pomFile = getPomFile(); // need the translated version of the pom file
-            if (isPomArtifact) {
-                installer.install(pomFile, artifact, localRepository);
-                installChecksums(artifact);
-            } else {
-                Artifact pomArtifact = artifactFactory.createProjectArtifact(artifact.getGroupId(),
-                        artifact.getArtifactId(), artifact.getBaseVersion());
-                pomArtifact.setFile(pomFile);
-                if (updateReleaseInfo) {
-                    pomArtifact.setRelease(true);
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final List<InstallRequest> group : groups.values()) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        for (InstallRequest request : group) {
+                            long start = metrics.start();
+                            install(request);
+                            metrics.record(PluginMetrics.INSTALL, start);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("Interrupted while installing artifacts", e);
+                } catch (ExecutionException e) {
+                    throw new MojoExecutionException(e.getCause().getMessage(), e.getCause());
                 }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
 
-                installer.install(pomFile, pomArtifact, localRepository);
-                installChecksums(pomArtifact);
+        if (createChecksum) {
+            List<File> files = new ArrayList<File>();
+            for (InstallRequest request : requests) {
+                addChecksumTargets(files, request.artifact);
+            }
+            installChecksums(files);
+        }
+    }
+
+    private void install(InstallRequest request) throws IOException, ArtifactInstallationException {
+        File target = getLocalRepoFile(request.artifact);
+        if (!request.file.getAbsoluteFile().equals(target.getAbsoluteFile())) {
+            target.getParentFile().mkdirs();
+            File tmpFile = File.createTempFile(target.getName() + ".", ".tmp", target.getParentFile());
+            try {
+                FileUtils.copyFile(request.file, tmpFile);
+                tmpFile.setLastModified(request.file.lastModified());
+                if (!tmpFile.renameTo(target) && !(target.delete() && tmpFile.renameTo(target))) {
+                    throw new IOException("Unable to move " + tmpFile + " to " + target);
+                }
+            } finally {
+                tmpFile.delete();
             }
-            pomFile.delete();
-        } catch (ArtifactInstallationException e) {
-            throw new MojoExecutionException(e.getMessage(), e);
         }
+        installer.install(request.file, request.artifact, localRepository);
     }
 
     protected File getLocalRepoFile(Artifact artifact) {
@@ -90,44 +219,54 @@ public class VersionPomInstallMojo extends AbstractVersionPomMojo {
             return;
         }
 
-        File artifactFile = getLocalRepoFile(artifact);
-        installChecksums(artifactFile);
+        List<File> files = new ArrayList<File>();
+        addChecksumTargets(files, artifact);
+        installChecksums(files);
+    }
 
-        Collection metadatas = artifact.getMetadataList();
+    private void addChecksumTargets(List<File> files, Artifact artifact) {
+        addChecksumTarget(files, getLocalRepoFile(artifact));
+        Collection<ArtifactMetadata> metadatas = artifact.getMetadataList();
         if (metadatas != null) {
-            for (ArtifactMetadata metadata : artifact.getMetadataList()) {
-                File metadataFile = getLocalRepoFile(metadata);
-                installChecksums(metadataFile);
+            for (ArtifactMetadata metadata : metadatas) {
+                addChecksumTarget(files, getLocalRepoFile(metadata));
             }
         }
     }
 
-    private void installChecksum(File originalFile, File installedFile, Digester digester, String ext)
-            throws MojoExecutionException {
-        String checksum;
-        getLog().debug("Calculating " + digester.getAlgorithm() + " checksum for " + originalFile);
+    private void installChecksums(List<File> files) throws MojoExecutionException {
+        ChecksumEngine engine;
         try {
-            checksum = digester.calc(originalFile);
-        } catch (DigesterException e) {
-            throw new MojoExecutionException("Failed to calculate " + digester.getAlgorithm() + " checksum for "
-                    + originalFile, e);
+            engine = new ChecksumEngine(checksumAlgorithms, checksumThreads);
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
         }
-
-        File checksumFile = new File(installedFile.getAbsolutePath() + ext);
-        getLog().debug("Installing checksum to " + checksumFile);
+        getLog().debug("Calculating " + engine.getExtensions() + " checksums for " + files);
+        PluginMetrics metrics = getMetrics();
+        long start = metrics.start();
         try {
-            checksumFile.getParentFile().mkdirs();
-            FileUtils.fileWrite(checksumFile.getAbsolutePath(), "UTF-8", checksum);
+            engine.install(files);
         } catch (IOException e) {
-            throw new MojoExecutionException("Failed to install checksum to " + checksumFile, e);
+            throw new MojoExecutionException("Failed to install checksums for " + files, e);
+        } finally {
+            metrics.record(PluginMetrics.CHECKSUM, start);
         }
     }
 
-    private void installChecksums(File installedFile) throws MojoExecutionException {
+    private void addChecksumTarget(List<File> files, File installedFile) {
         boolean signatureFile = installedFile.getName().endsWith(".asc");
         if (installedFile.isFile() && !signatureFile) {
-            installChecksum(installedFile, installedFile, md5Digester, ".md5");
-            installChecksum(installedFile, installedFile, sha1Digester, ".sha1");
+            files.add(installedFile);
+        }
+    }
+
+    private static class InstallRequest {
+        private final File file;
+        private final Artifact artifact;
+
+        private InstallRequest(File file, Artifact artifact) {
+            this.file = file;
+            this.artifact = artifact;
         }
     }
 }
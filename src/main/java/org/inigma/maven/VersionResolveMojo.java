@@ -0,0 +1,16 @@
+package org.inigma.maven;
+
+/**
+ * Resolves the version of every reactor module from git and records them, with HEAD and the version pattern, in the
+ * version manifest. Later builds of the same commit, such as the other stages of a CI pipeline, apply the recorded
+ * versions through gitVersion or the build extension without resolving them again.
+ * @goal resolve
+ * @aggregator
+ * @threadSafe
+ */
+public class VersionResolveMojo extends GitVersionBranchMojo {
+    @Override
+    protected boolean isWriteManifest() {
+        return true;
+    }
+}
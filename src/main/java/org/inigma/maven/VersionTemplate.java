@@ -0,0 +1,126 @@
+package org.inigma.maven;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable, pre-parsed form of a version pattern. A pattern is split once into literal text and
+ * <code>${scmVersion.*}</code> variable references and cached by its source string, so rendering is a single append
+ * pass that never interprets the substituted values. Placeholders that are not <code>scmVersion</code> variables are
+ * kept as literal text.
+ */
+public final class VersionTemplate {
+    public static final String NUMBER = "number";
+    public static final String BRANCH = "branch";
+    public static final String DATE = "date";
+    public static final String COMMIT = "commit";
+    public static final String SHORT_COMMIT = "shortCommit";
+    public static final String DISTANCE = "distance";
+    public static final String DESCRIBE = "describe";
+
+    private static final String VARIABLE_PREFIX = "${scmVersion.";
+    private static final int ESTIMATED_VALUE_LENGTH = 24;
+    private static final ConcurrentMap<String, VersionTemplate> TEMPLATES =
+            new ConcurrentHashMap<String, VersionTemplate>();
+
+    private final String pattern;
+    private final String[] literals;
+    private final String[] variables;
+    private final int estimatedLength;
+
+    private VersionTemplate(String pattern, List<String> literals, List<String> variables) {
+        this.pattern = pattern;
+        this.literals = literals.toArray(new String[literals.size()]);
+        this.variables = variables.toArray(new String[variables.size()]);
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.estimatedLength = length + variables.size() * ESTIMATED_VALUE_LENGTH;
+    }
+
+    /**
+     * @return true if the pattern can be compiled, that is, it is neither null nor blank.
+     */
+    public static boolean isPattern(String pattern) {
+        return pattern != null && pattern.trim().length() > 0;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the pattern is null or blank, see {@link #isPattern(String)}.
+     */
+    public static VersionTemplate compile(String pattern) {
+        if (!isPattern(pattern)) {
+            throw new IllegalArgumentException("Version pattern must not be empty");
+        }
+        VersionTemplate template = TEMPLATES.get(pattern);
+        if (template == null) {
+            template = parse(pattern);
+            VersionTemplate existing = TEMPLATES.putIfAbsent(pattern, template);
+            if (existing != null) {
+                template = existing;
+            }
+        }
+        return template;
+    }
+
+    private static VersionTemplate parse(String pattern) {
+        List<String> literals = new ArrayList<String>();
+        List<String> variables = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
+        int position = 0;
+        while (position < pattern.length()) {
+            int start = pattern.indexOf(VARIABLE_PREFIX, position);
+            int end = start < 0 ? -1 : pattern.indexOf('}', start + VARIABLE_PREFIX.length());
+            if (end < 0) {
+                literal.append(pattern, position, pattern.length());
+                break;
+            }
+            literal.append(pattern, position, start);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            variables.add(pattern.substring(start + VARIABLE_PREFIX.length(), end));
+            position = end + 1;
+        }
+        literals.add(literal.toString());
+        return new VersionTemplate(pattern, literals, variables);
+    }
+
+    /**
+     * @return true if the pattern references the given scmVersion variable.
+     */
+    public boolean references(String variable) {
+        for (String name : variables) {
+            if (name.equals(variable)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String render(VersionInformation values) {
+        StringBuilder sb = new StringBuilder(estimatedLength);
+        for (int i = 0; i < variables.length; i++) {
+            sb.append(literals[i]);
+            String value = values.getVariable(variables[i]);
+            if (value == null) {
+                sb.append(VARIABLE_PREFIX).append(variables[i]).append('}');
+            } else {
+                sb.append(value);
+            }
+        }
+        sb.append(literals[variables.length]);
+        return sb.toString();
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}